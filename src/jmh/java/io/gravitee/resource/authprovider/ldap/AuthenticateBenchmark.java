@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import static io.gravitee.resource.authprovider.ldap.Helper.newLdapResource;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.el.spel.context.SecuredResolver;
+import io.gravitee.resource.authprovider.api.Authentication;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times {@link LdapAuthenticationProviderResource#authenticate} end to end against an in-process directory, from the
+ * call to the completion of the handler.
+ * <p>
+ * <code>cacheHit</code> authenticates users whose credentials are cached, <code>cacheMiss</code> uses a resource without
+ * cache so that every call searches the user and binds with its credentials.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticateBenchmark {
+
+    private static final int USERS = 100;
+
+    private InMemoryLdapServer ldapServer;
+
+    private LdapAuthenticationProviderResource cached;
+
+    private LdapAuthenticationProviderResource uncached;
+
+    @Setup
+    public void setup() throws Exception {
+        SecuredResolver.initialize(null);
+        TemplateEngine templateEngine = TemplateEngine.templateEngine();
+
+        ldapServer = new InMemoryLdapServer().start();
+        for (int i = 0; i < USERS; i++) {
+            ldapServer.addUser("user" + i);
+        }
+
+        LdapAuthenticationProviderResourceConfiguration cachedConfiguration = ldapServer.newConfiguration();
+        cachedConfiguration.setCacheMaxElements(USERS);
+        cached = newLdapResource(cachedConfiguration, templateEngine);
+        cached.start();
+        for (int i = 0; i < USERS; i++) {
+            authenticate(cached, "user" + i);
+        }
+
+        LdapAuthenticationProviderResourceConfiguration uncachedConfiguration = ldapServer.newConfiguration();
+        uncachedConfiguration.setCacheMaxElements(0);
+        uncached = newLdapResource(uncachedConfiguration, templateEngine);
+        uncached.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        cached.stop();
+        uncached.stop();
+        ldapServer.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int next;
+
+        String nextUser() {
+            next = (next + 1) % USERS;
+            return "user" + next;
+        }
+    }
+
+    @Benchmark
+    public Authentication cacheHit(ThreadState state) throws Exception {
+        return authenticate(cached, state.nextUser());
+    }
+
+    @Benchmark
+    public Authentication cacheMiss(ThreadState state) throws Exception {
+        return authenticate(uncached, state.nextUser());
+    }
+
+    private static Authentication authenticate(LdapAuthenticationProviderResource resource, String username) throws Exception {
+        CompletableFuture<Authentication> result = new CompletableFuture<>();
+        resource.authenticate(username, username, result::complete);
+        return result.get(5, TimeUnit.SECONDS);
+    }
+}
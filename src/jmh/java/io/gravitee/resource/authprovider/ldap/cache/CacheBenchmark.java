@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares {@link AuthenticationCache} with the previous {@link LRUCache}, with one and several threads hitting the cache.
+ * <p>
+ * Half of the keys are cached at setup, so that <code>get</code> measures a mix of hits and misses, <code>put</code>
+ * and <code>getOrPut</code> exercise admission and eviction. <code>expire</code> uses caches whose entries outlive
+ * a single millisecond, so that reads mostly find expired entries.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    @Param({ "lru", "authentication" })
+    String implementation;
+
+    @Param({ "1000" })
+    int size;
+
+    private Adapter cache;
+
+    private Adapter expiringCache;
+
+    private String[] usernames;
+
+    @Setup
+    public void setup() {
+        cache = newCache(Duration.ofHours(1));
+        expiringCache = newCache(Duration.ofMillis(1));
+
+        usernames = new String[size * 2];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "user" + i;
+            if (i % 2 == 0) {
+                cache.put(usernames[i], usernames[i], new Authentication(usernames[i]));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+        expiringCache.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Authentication get_1_thread(ThreadState state) {
+        return get(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authentication get_8_threads(ThreadState state) {
+        return get(state);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void put_1_thread(ThreadState state) {
+        put(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void put_8_threads(ThreadState state) {
+        put(state);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Authentication expire_1_thread(ThreadState state) {
+        return expire(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authentication expire_8_threads(ThreadState state) {
+        return expire(state);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Authentication getOrPut_1_thread(ThreadState state) {
+        return getOrPut(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authentication getOrPut_8_threads(ThreadState state) {
+        return getOrPut(state);
+    }
+
+    private Authentication get(ThreadState state) {
+        String username = usernames[state.random.nextInt(usernames.length)];
+        return cache.get(username, username);
+    }
+
+    private void put(ThreadState state) {
+        String username = usernames[state.random.nextInt(usernames.length)];
+        cache.put(username, username, new Authentication(username));
+    }
+
+    private Authentication expire(ThreadState state) {
+        String username = usernames[state.random.nextInt(usernames.length)];
+        Authentication authentication = expiringCache.get(username, username);
+        if (authentication == null) {
+            expiringCache.put(username, username, new Authentication(username));
+        }
+        return authentication;
+    }
+
+    private Authentication getOrPut(ThreadState state) {
+        String username = usernames[state.random.nextInt(usernames.length)];
+        Authentication authentication = cache.get(username, username);
+        if (authentication == null) {
+            authentication = new Authentication(username);
+            cache.put(username, username, authentication);
+        }
+        return authentication;
+    }
+
+    private Adapter newCache(Duration timeToLive) {
+        return switch (implementation) {
+            case "lru" -> new LruAdapter(new LRUCache(size, timeToLive, Duration.ofMinutes(1)));
+            case "authentication" -> new AuthenticationAdapter(new AuthenticationCache(size, timeToLive), new CredentialFingerprinter());
+            default -> throw new IllegalArgumentException(implementation);
+        };
+    }
+
+    private interface Adapter {
+        Authentication get(String username, String password);
+
+        void put(String username, String password, Authentication authentication);
+
+        void close();
+    }
+
+    private record LruAdapter(LRUCache cache) implements Adapter {
+        @Override
+        public Authentication get(String username, String password) {
+            return cache.get(new LRUCache.Key(username, password));
+        }
+
+        @Override
+        public void put(String username, String password, Authentication authentication) {
+            cache.put(new LRUCache.Key(username, password), authentication);
+        }
+
+        @Override
+        public void close() {
+            cache.close();
+        }
+    }
+
+    private record AuthenticationAdapter(AuthenticationCache cache, CredentialFingerprinter fingerprinter) implements Adapter {
+        @Override
+        public Authentication get(String username, String password) {
+            return cache.get(fingerprinter.lookupKey(username, password));
+        }
+
+        @Override
+        public void put(String username, String password, Authentication authentication) {
+            cache.put(fingerprinter.fingerprint(username, password), authentication);
+        }
+
+        @Override
+        public void close() {
+            cache.clear();
+        }
+    }
+}
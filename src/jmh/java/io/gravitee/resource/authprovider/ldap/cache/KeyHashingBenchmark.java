@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of turning credentials into a cache key, done on every authentication whether the cache hits or not,
+ * and of a cache hit as a whole.
+ * <p>
+ * Run with the <code>gc</code> profiler (the default of the <code>benchmarks</code> profile) to get the allocation rate
+ * per operation, reported as <code>gc.alloc.rate.norm</code>: <code>lookupKey</code> and <code>cacheHit</code> are
+ * expected to allocate nothing.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyHashingBenchmark {
+
+    @Param({ "fry", "professor.hubert.farnsworth@planetexpress.com" })
+    String username;
+
+    private String password;
+
+    private final CredentialFingerprinter fingerprinter = new CredentialFingerprinter();
+
+    private final AuthenticationCache cache = new AuthenticationCache(10, Duration.ofHours(1));
+
+    @Setup
+    public void setup() {
+        password = username + "-" + "GoodNewsEveryone";
+        cache.put(fingerprinter.fingerprint(username, password), new Authentication(username));
+    }
+
+    @Benchmark
+    public Fingerprint fingerprint() {
+        return fingerprinter.fingerprint(username, password);
+    }
+
+    @Benchmark
+    public Fingerprint lookupKey() {
+        return fingerprinter.lookupKey(username, password);
+    }
+
+    @Benchmark
+    public AuthenticationCache.Entry cacheHit() {
+        return cache.getEntry(fingerprinter.lookupKey(username, password));
+    }
+
+    @Benchmark
+    public String lruCacheKey() {
+        return new LRUCache.Key(username, password).asHash();
+    }
+}
@@ -28,6 +28,8 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Cache used by the resource before {@link AuthenticationCache}, kept as a baseline for benchmarks.
+ *
  * @author David BRASSELY (david.brassely at graviteesource.com)
  * @author GraviteeSource Team
  */
@@ -143,7 +145,7 @@ public class LRUCache {
      * @param password
      */
     public record Key(String username, String password) {
-        String asHash() {
+        public String asHash() {
             return Hashing.sha256().hashBytes(username.concat("/").concat(password).getBytes()).toString();
         }
     }
@@ -18,17 +18,75 @@ package io.gravitee.resource.authprovider.ldap;
 import io.gravitee.gateway.api.ExecutionContext;
 import io.gravitee.gateway.api.handler.Handler;
 import io.gravitee.gateway.reactive.api.context.DeploymentContext;
+import io.gravitee.node.api.cache.CacheManager;
+import io.gravitee.node.api.configuration.Configuration;
 import io.gravitee.resource.authprovider.api.Authentication;
 import io.gravitee.resource.authprovider.api.AuthenticationProviderResource;
-import io.gravitee.resource.authprovider.ldap.cache.LRUCache;
+import io.gravitee.resource.authprovider.ldap.auth.AttributeFilter;
+import io.gravitee.resource.authprovider.ldap.auth.BatchingDnResolver;
+import io.gravitee.resource.authprovider.ldap.auth.CachingDnResolver;
+import io.gravitee.resource.authprovider.ldap.auth.DirectoryMirror;
+import io.gravitee.resource.authprovider.ldap.auth.DirectoryWatcher;
+import io.gravitee.resource.authprovider.ldap.auth.EntrySearchDnResolver;
+import io.gravitee.resource.authprovider.ldap.auth.GroupResolver;
+import io.gravitee.resource.authprovider.ldap.auth.LoginContext;
+import io.gravitee.resource.authprovider.ldap.auth.ResolvedEntryResolver;
+import io.gravitee.resource.authprovider.ldap.cache.AuthenticationCache;
+import io.gravitee.resource.authprovider.ldap.cache.AuthenticationStore;
+import io.gravitee.resource.authprovider.ldap.cache.CacheManagerAuthenticationStore;
+import io.gravitee.resource.authprovider.ldap.cache.CacheSnapshot;
+import io.gravitee.resource.authprovider.ldap.cache.CompactAttributes;
+import io.gravitee.resource.authprovider.ldap.cache.CredentialFingerprinter;
+import io.gravitee.resource.authprovider.ldap.cache.FailedAuthenticationCache;
+import io.gravitee.resource.authprovider.ldap.cache.FailureThrottle;
+import io.gravitee.resource.authprovider.ldap.cache.Fingerprint;
+import io.gravitee.resource.authprovider.ldap.concurrent.AdaptiveLimit;
+import io.gravitee.resource.authprovider.ldap.concurrent.CircuitBreaker;
+import io.gravitee.resource.authprovider.ldap.concurrent.Deadline;
+import io.gravitee.resource.authprovider.ldap.concurrent.SingleFlight;
+import io.gravitee.resource.authprovider.ldap.configuration.GroupResolution;
 import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
 import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfigurationEvaluator;
+import io.gravitee.resource.authprovider.ldap.configuration.LoadBalancingStrategy;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import io.gravitee.resource.authprovider.ldap.metrics.TimedConnectionValidator;
+import io.gravitee.resource.authprovider.ldap.metrics.TimedPooledConnectionFactory;
+import io.gravitee.resource.authprovider.ldap.routing.Hedger;
+import io.gravitee.resource.authprovider.ldap.routing.LdapRouter;
+import io.gravitee.resource.authprovider.ldap.routing.LdapServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import javax.inject.Inject;
 import lombok.Setter;
 import org.ldaptive.*;
@@ -48,11 +106,106 @@ public class LdapAuthenticationProviderResource extends AuthenticationProviderRe
 
     private static final String LDAP_SEPARATOR = ",";
 
-    private PooledConnectionFactory connectionFactory;
+    /**
+     * Gateway configuration property holding the directory of the cache snapshots.
+     */
+    static final String SNAPSHOT_DIRECTORY_PROPERTY = "resources.ldap.cache.snapshot.directory";
+
+    /**
+     * Connections bound with the service account, used to search the directory.
+     */
+    private ConnectionFactory connectionFactory;
+
+    /**
+     * Connections used to bind users, kept apart so that user binds never change the identity of search connections.
+     */
+    private ConnectionFactory bindConnectionFactory;
 
     private Authenticator authenticator;
 
-    private LRUCache cache;
+    /**
+     * Cache of resolved user DNs, <code>null</code> when disabled.
+     */
+    private CachingDnResolver dnCache;
+
+    private DirectoryMirror mirror;
+
+    /**
+     * Resolves the groups of authenticated users, <code>null</code> when disabled.
+     */
+    private GroupResolver groupResolver;
+
+    /**
+     * Bounds the group resolution by the deadline of the authentication.
+     */
+    private Hedger<List<String>> groupHedger;
+
+    /**
+     * Fingerprints credentials for the caches, with a secret of its own so that cached keys cannot be reversed.
+     */
+    private CredentialFingerprinter fingerprinter;
+
+    private AuthenticationCache cache;
+
+    /**
+     * Evicts the cached authentications of the users modified in the directory, <code>null</code> when disabled.
+     */
+    private DirectoryWatcher watcher;
+
+    /**
+     * Authentications shared with the other gateway nodes, <code>null</code> when not shared.
+     */
+    private AuthenticationStore store;
+
+    private FailedAuthenticationCache failedAuthentications;
+
+    private FailureThrottle failureThrottle;
+
+    /**
+     * Executor running the blocking LDAP operations (DN search, bind, entry resolution) so that callers are never parked
+     * while waiting for the directory.
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Adapts the number of workers to the directory latency, <code>null</code> when the number of workers is fixed.
+     */
+    private AdaptiveLimit concurrencyLimit;
+
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * Opens the initial connections of the pools in background, so that deployment does not wait for the directory.
+     */
+    private ExecutorService warmUpExecutor;
+
+    /**
+     * Runs the LDAP operations that may be hedged, <code>null</code> when operations run on the authentication workers.
+     */
+    private ExecutorService hedgeExecutor;
+
+    /**
+     * Runs the user searches of DN batches, <code>null</code> when DNs are not batched.
+     */
+    private ExecutorService dnBatchExecutor;
+
+    /**
+     * Completed once the pools are warmed up, whether or not connections could be opened.
+     */
+    private volatile CompletableFuture<Void> warmUp = CompletableFuture.completedFuture(null);
+
+    /**
+     * Authentications waiting for the warm-up.
+     */
+    private final AtomicInteger warmUpWaiters = new AtomicInteger();
+
+    /**
+     * Authentications in flight, keyed by credentials fingerprint, so that identical concurrent logins share a single
+     * LDAP round trip.
+     */
+    private final SingleFlight<Fingerprint, Authentication> inFlight = new SingleFlight<>();
+
+    private LdapMetrics metrics;
 
     @Inject
     @Setter
@@ -71,34 +224,292 @@ public class LdapAuthenticationProviderResource extends AuthenticationProviderRe
 
     @Override
     public void authenticate(String username, String password, ExecutionContext context, Handler<Authentication> handler) {
-        Authentication authentication = cache.get(new LRUCache.Key(username, password));
-        if (authentication == null) {
-            try {
-                AuthenticationResponse response = authenticator.authenticate(new AuthenticationRequest(username, new Credential(password)));
+        // reused by this thread, made immutable before being kept
+        Fingerprint lookupKey = fingerprinter.lookupKey(username, password);
+        AuthenticationCache.Entry cached = cache.getEntry(lookupKey);
+        if (cached != null) {
+            metrics.cacheHit();
+            if (cached.needsRefresh()) {
+                refresh(lookupKey.immutable(), username, password, cached);
+            }
+            handler.handle(cached.authentication());
+            return;
+        }
+        metrics.cacheMiss();
 
-                if (response.isSuccess()) {
-                    LdapEntry userEntry = response.getLdapEntry();
+        boolean recentlyRejected = failedAuthentications.contains(lookupKey);
+        if (recentlyRejected || failureThrottle.isThrottled(username)) {
+            logger.debug("Rejecting user[{}] without contacting LDAP, credentials were recently rejected", username);
+            metrics.rejected(recentlyRejected ? LdapMetrics.REJECTED_RECENTLY_REJECTED : LdapMetrics.REJECTED_THROTTLED);
+            handler.handle(null);
+            return;
+        }
 
-                    authentication = new Authentication(userEntry.getDn());
+        Fingerprint key = lookupKey.immutable();
+        // captured before leaving the caller thread, the handler is completed back on it
+        Context callerContext = Vertx.currentContext();
+        inFlight
+            .execute(key, () -> authenticateAsync(key, username, password), metrics::coalesced)
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    logger.error("An error occurs while trying to authenticate a user from LDAP [{}]", name(), throwable);
+                }
+                complete(callerContext, handler, result);
+            });
+    }
 
-                    List<LdapAttribute> attributes = new ArrayList<>(userEntry.getAttributes());
-                    addLdapUrlAttribute(attributes, response);
-                    authentication.setAttributes(
-                        attributes.stream().collect(Collectors.toMap(LdapAttribute::getName, LdapAttribute::getStringValue))
-                    );
-                    cache.put(new LRUCache.Key(username, password), authentication);
-                } else {
-                    logger.debug(
-                        "Failed to authenticate user[{}] message[{}]",
-                        username,
-                        response.getAuthenticationHandlerResponse().getDiagnosticMessage()
+    /**
+     * Completes the handler on the context of the caller, so that the policy chain carries on from its event loop rather
+     * than from an LDAP worker. Callers without a Vert.x context are completed right away.
+     */
+    private void complete(Context callerContext, Handler<Authentication> handler, Authentication result) {
+        if (callerContext == null || callerContext == Vertx.currentContext()) {
+            handler.handle(result);
+        } else {
+            callerContext.runOnContext(ignored -> handler.handle(result));
+        }
+    }
+
+    /**
+     * Revalidates a cached authentication in background, the cached one being served meanwhile. A rejection removes it
+     * from the cache, while an LDAP error keeps it until it is no longer allowed to be served.
+     */
+    private void refresh(Fingerprint key, String username, String password, AuthenticationCache.Entry cached) {
+        if (cached.isStale()) {
+            metrics.staleHit();
+        }
+        inFlight.execute(key, () -> authenticateAsync(key, username, password), metrics::coalesced);
+    }
+
+    private CompletableFuture<Authentication> authenticateAsync(Fingerprint key, String username, String password) {
+        if (!warmUp.isDone()) {
+            return awaitWarmUp(username)
+                .thenCompose(ready -> ready ? submit(key, username, password) : CompletableFuture.completedFuture(null));
+        }
+        return submit(key, username, password);
+    }
+
+    /**
+     * Authentications arriving while the pools are warmed up wait for it, up to <code>startupWaitTimeout</code> and
+     * <code>startupQueueSize</code> waiting authentications. Others fail fast.
+     *
+     * @return completed with <code>true</code> once the warm-up is over, <code>false</code> if the authentication is
+     * rejected
+     */
+    private CompletableFuture<Boolean> awaitWarmUp(String username) {
+        long timeout = configuration().getStartupWaitTimeout();
+        if (timeout <= 0 || warmUpWaiters.incrementAndGet() > configuration().getStartupQueueSize()) {
+            if (timeout > 0) {
+                warmUpWaiters.decrementAndGet();
+            }
+            logger.debug("Rejecting user[{}], LDAP resource [{}] is still connecting", username, name());
+            metrics.rejected(LdapMetrics.REJECTED_STARTING);
+            return CompletableFuture.completedFuture(false);
+        }
+        return warmUp
+            .handle((ignored, throwable) -> true)
+            .completeOnTimeout(false, timeout, TimeUnit.MILLISECONDS)
+            .whenComplete((ready, throwable) -> {
+                warmUpWaiters.decrementAndGet();
+                if (!ready) {
+                    logger.debug("Rejecting user[{}], LDAP resource [{}] did not connect in time", username, name());
+                    metrics.rejected(LdapMetrics.REJECTED_STARTING);
+                }
+            });
+    }
+
+    /**
+     * Authentications run on the workers of the bulkhead, waiting in its bounded queue when all are busy. They fail fast
+     * when the queue is full or while the circuit breaker is open. Their deadline counts from now, including the wait.
+     */
+    private CompletableFuture<Authentication> submit(Fingerprint key, String username, String password) {
+        if (circuitBreaker.isOpen()) {
+            logger.debug("Rejecting user[{}], LDAP resource [{}] is failing", username, name());
+            metrics.rejected(LdapMetrics.REJECTED_CIRCUIT_OPEN);
+            return CompletableFuture.completedFuture(null);
+        }
+        long submitted = System.nanoTime();
+        long timeout = configuration().getAuthenticationTimeout();
+        try {
+            return CompletableFuture.supplyAsync(
+                () -> {
+                    metrics.phase(LdapMetrics.PHASE_QUEUE, System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                    Authentication shared = loadShared(key);
+                    if (shared != null) {
+                        return shared;
+                    }
+                    if (!circuitBreaker.tryAcquire()) {
+                        logger.debug("Rejecting user[{}], LDAP resource [{}] is failing", username, name());
+                        metrics.rejected(LdapMetrics.REJECTED_CIRCUIT_OPEN);
+                        return null;
+                    }
+                    if (timeout > 0) {
+                        Deadline.start(submitted + TimeUnit.MILLISECONDS.toNanos(timeout));
+                    }
+                    try {
+                        return authenticateAgainstLdap(key, username, password);
+                    } finally {
+                        Deadline.clear();
+                    }
+                },
+                executor
+            );
+        } catch (RejectedExecutionException rejectedEx) {
+            if (executor.isShutdown()) {
+                logger.warn("Unable to authenticate user[{}], LDAP resource [{}] is stopped", username, name());
+            } else {
+                logger.debug("Rejecting user[{}], too many authentications are waiting for LDAP resource [{}]", username, name());
+                metrics.rejected(LdapMetrics.REJECTED_BULKHEAD_FULL);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private Authentication authenticateAgainstLdap(Fingerprint key, String username, String password) {
+        long start = System.nanoTime();
+        String outcome = LdapMetrics.OUTCOME_ERROR;
+        try {
+            AuthenticationResponse response = authenticator.authenticate(
+                new AuthenticationRequest(new User(username, new LoginContext()), new Credential(password))
+            );
+
+            if (response.isSuccess()) {
+                LdapEntry userEntry = response.getLdapEntry();
+
+                Authentication authentication = new Authentication(userEntry.getDn());
+
+                List<LdapAttribute> ldapAttributes = new ArrayList<>(userEntry.getAttributes());
+                addLdapUrlAttribute(ldapAttributes, response);
+                Map<String, Object> attributes = new HashMap<>();
+                // text values are decoded when read by a policy, binary ones are handed base64 encoded
+                ldapAttributes.forEach(attribute ->
+                    attributes.put(
+                        attribute.getName(),
+                        AttributeFilter.isBinary(attribute)
+                            ? Base64.getEncoder().encodeToString(attribute.getBinaryValue())
+                            : attribute.getBinaryValue()
+                    )
+                );
+                if (groupResolver != null) {
+                    attributes.put(
+                        configuration().getGroupAttribute(),
+                        metrics.time(
+                            LdapMetrics.PHASE_GROUP_RESOLUTION,
+                            () -> groupHedger.call(() -> groupResolver.resolve(userEntry))
+                        )
                     );
                 }
-            } catch (LdapException ldapEx) {
-                logger.error("An error occurs while trying to authenticate a user from LDAP [{}]", name(), ldapEx);
+                authentication.setAttributes(CompactAttributes.ofRaw(attributes));
+                cache.put(key, authentication);
+                share(key, authentication);
+                failureThrottle.success(username);
+                outcome = LdapMetrics.OUTCOME_SUCCESS;
+                return authentication;
+            }
+
+            outcome = LdapMetrics.OUTCOME_INVALID_CREDENTIALS;
+            cache.invalidate(key);
+            unshare(key);
+            failedAuthentications.put(key);
+            failureThrottle.failure(username);
+            invalidateDn(username, response);
+
+            logger.debug("Failed to authenticate user[{}] message[{}]", username, response.getDiagnosticMessage());
+        } catch (LdapException ldapEx) {
+            if (ldapEx.getResultCode() == ResultCode.LDAP_TIMEOUT) {
+                outcome = LdapMetrics.OUTCOME_TIMEOUT;
+            }
+            logger.error("An error occurs while trying to authenticate a user from LDAP [{}]", name(), ldapEx);
+        } finally {
+            long duration = System.nanoTime() - start;
+            metrics.ldapAuthentication(outcome, duration, TimeUnit.NANOSECONDS);
+            // rejected credentials mean the directory is healthy
+            boolean failed = LdapMetrics.OUTCOME_ERROR.equals(outcome) || LdapMetrics.OUTCOME_TIMEOUT.equals(outcome);
+            circuitBreaker.record(failed);
+            if (concurrencyLimit != null) {
+                concurrencyLimit.sample(duration, failed);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up an authentication shared by another node, not used when it is itself due for a refresh so that it gets
+     * revalidated against LDAP.
+     */
+    private Authentication loadShared(Fingerprint key) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            AuthenticationStore.StoredAuthentication stored = store.get(key);
+            if (stored == null || stored.remainingMillis() <= configuration().getCacheRefreshAheadWindow()) {
+                return null;
             }
+            Authentication authentication = new Authentication(stored.username());
+            authentication.setAttributes(CompactAttributes.of(stored.attributes()));
+            cache.put(key, authentication, Duration.ofMillis(stored.remainingMillis()));
+            metrics.sharedHit();
+            return authentication;
+        } catch (RuntimeException ex) {
+            logger.warn("Unable to read the authentication cache shared by LDAP resource [{}]", name(), ex);
+            return null;
+        }
+    }
+
+    private void share(Fingerprint key, Authentication authentication) {
+        if (store != null) {
+            try {
+                long expiresAt = System.currentTimeMillis() + configuration().getCacheTimeToLive();
+                store.put(
+                    key,
+                    new AuthenticationStore.StoredAuthentication(authentication.getUsername(), authentication.getAttributes(), expiresAt)
+                );
+            } catch (RuntimeException ex) {
+                logger.warn("Unable to share authentication of LDAP resource [{}]", name(), ex);
+            }
+        }
+    }
+
+    private void unshare(Fingerprint key) {
+        if (store != null) {
+            try {
+                store.invalidate(key);
+            } catch (RuntimeException ex) {
+                logger.warn("Unable to remove shared authentication of LDAP resource [{}]", name(), ex);
+            }
+        }
+    }
+
+    /**
+     * The authentications of a modified user are evicted from the local cache and from the store shared with other nodes,
+     * so that a reset password or a disabled account does not wait for the cache to expire.
+     */
+    private void invalidateEntry(String dn) {
+        Set<Fingerprint> keys = cache.invalidateDn(dn);
+        if (!keys.isEmpty()) {
+            keys.forEach(this::unshare);
+            metrics.invalidated(keys.size());
+            logger.debug("Evicted {} cached authentications of changed user [{}] from LDAP resource [{}]", keys.size(), dn, name());
+        }
+    }
+
+    /**
+     * A cached DN is dropped when the bind to it fails: the entry may have been moved or deleted. Directories usually
+     * report a missing DN as invalid credentials, so that it cannot be told apart from a wrong password.
+     */
+    private void invalidateDn(String username, AuthenticationResponse response) {
+        AuthenticationHandlerResponse handlerResponse = response.getAuthenticationHandlerResponse();
+        if (handlerResponse == null) {
+            return;
+        }
+        ResultCode resultCode = handlerResponse.getResultCode();
+        if (dnCache != null && (resultCode == ResultCode.NO_SUCH_OBJECT || resultCode == ResultCode.INVALID_CREDENTIALS)) {
+            dnCache.invalidate(username);
+        }
+        if (mirror != null && resultCode == ResultCode.NO_SUCH_OBJECT) {
+            mirror.invalidate(username);
         }
-        handler.handle(authentication);
     }
 
     @Override
@@ -106,92 +517,814 @@ public class LdapAuthenticationProviderResource extends AuthenticationProviderRe
         super.doStart();
 
         logger.info("Init LDAP connection to source[{}]", configuration().getContextSourceUrl());
-        connectionFactory = pooledConnectionFactory();
-        connectionFactory.initialize();
+        metrics =
+            new LdapMetrics(
+                meterRegistry(),
+                // the URL is not a tag, it may hold a secret
+                Tags.of("resource", Optional.ofNullable(name()).orElse("ldap"), "api", Optional.ofNullable(apiId()).orElse("unknown"))
+            );
+        List<PooledConnectionFactory> pools = new ArrayList<>();
+        List<LdapRouter> routers = new ArrayList<>();
+        connectionFactory = searchConnectionFactory(pools, routers);
+        bindConnectionFactory = bindConnectionFactory(pools, routers);
 
         String[] userAttributes = getUserAttributes();
 
+        hedgeExecutor = hedgeExecutor();
+        // a hedged bind with a wrong password counts twice against lockout policies, and the connection of a bind not used
+        // must be given back to its pool
+        Hedger<AuthenticationHandlerResponse> bindHedger = hedger(
+            configuration().isHedgingBinds() ? bindConnectionFactory : null,
+            LdapMetrics.PHASE_BIND,
+            response -> Optional.ofNullable(response.getConnection()).ifPresent(Connection::close)
+        );
+        DnResolver dnResolver = dnResolver(hedger(connectionFactory, LdapMetrics.PHASE_DN_RESOLUTION, dn -> {}));
+        AuthenticationHandler authenticationHandler = new SimpleBindAuthenticationHandler(bindConnectionFactory);
+        SearchEntryResolver searchEntryResolver = new SearchEntryResolver();
+        AttributeFilter attributeFilter = attributeFilter();
+        if (attributeFilter.isEnabled()) {
+            searchEntryResolver.setEntryHandlers(attributeFilter);
+        }
+        EntryResolver entryResolver = new ResolvedEntryResolver(searchEntryResolver);
+        Hedger<LdapEntry> entryHedger = hedger(null, LdapMetrics.PHASE_ENTRY_RESOLUTION, entry -> {});
         authenticator =
             Authenticator
                 .builder()
-                .dnResolver(
-                    SearchDnResolver
-                        .builder()
-                        .factory(connectionFactory)
-                        .dn(
-                            Optional
-                                .ofNullable(configuration().getUserSearchBase())
-                                .map(dn -> {
-                                    if (!dn.isEmpty()) {
-                                        return dn.concat(LDAP_SEPARATOR);
-                                    }
-                                    return dn;
-                                })
-                                .orElse("")
-                                .concat(configuration().getContextSourceBase())
-                        )
-                        // replace *={0} authentication filter (ldaptive use *={user})
-                        .filter(configuration().getUserSearchFilter().replace("{0}", "{user}"))
-                        .subtreeSearch(true)
-                        .allowMultipleDns(false)
-                        .build()
-                )
+                .dnResolver(user -> metrics.time(LdapMetrics.PHASE_DN_RESOLUTION, () -> dnResolver.resolve(user)))
                 .returnAttributes(userAttributes)
-                .authenticationHandler(new SimpleBindAuthenticationHandler(connectionFactory))
-                .entryResolver(new SearchEntryResolver())
+                .authenticationHandler(criteria ->
+                    metrics.time(LdapMetrics.PHASE_BIND, () -> bindHedger.call(() -> authenticationHandler.authenticate(criteria)))
+                )
+                .entryResolver((criteria, response) ->
+                    metrics.time(
+                        LdapMetrics.PHASE_ENTRY_RESOLUTION,
+                        () -> entryHedger.call(() -> entryResolver.resolve(criteria, response))
+                    )
+                )
                 .build();
 
+        groupResolver = groupResolver();
+        groupHedger = hedger(null, LdapMetrics.PHASE_GROUP_RESOLUTION, groups -> {});
+
+        store = configuration().isSharedCache() ? authenticationStore() : null;
+        CacheSnapshot.Restored restored = restoreSnapshot();
+        if (store != null) {
+            // nodes sharing authentications must compute the same fingerprints
+            fingerprinter = new CredentialFingerprinter(settingsDigest());
+        } else if (restored != null) {
+            fingerprinter = new CredentialFingerprinter(restored.secret());
+        } else {
+            fingerprinter = new CredentialFingerprinter();
+        }
         cache =
-            new LRUCache(
+            new AuthenticationCache(
                 configuration().getCacheMaxElements(),
                 Duration.ofMillis(configuration().getCacheTimeToLive()),
-                Duration.ofMillis(configuration.getCacheChecksMs())
+                Duration.ofMillis(configuration().getCacheRefreshAheadWindow()),
+                Duration.ofMillis(configuration().getCacheStaleWhileRevalidate())
+            );
+        if (restored != null && Arrays.equals(restored.secret(), fingerprinter.secret())) {
+            restored.entries().forEach(entry -> cache.put(entry.key(), entry.authentication(), entry.timeToLive()));
+            logger.info("Restored {} cached authentications of LDAP resource [{}]", restored.entries().size(), name());
+        }
+        if (configuration().getCacheInvalidationInterval() > 0) {
+            watcher = directoryWatcher();
+        }
+        failedAuthentications =
+            new FailedAuthenticationCache(
+                configuration().getFailureCacheMaxElements(),
+                Duration.ofMillis(configuration().getFailureCacheTimeToLive())
+            );
+        failureThrottle =
+            new FailureThrottle(
+                configuration().getFailureThrottleThreshold(),
+                Duration.ofMillis(configuration().getFailureThrottleInitialBackoff()),
+                Duration.ofMillis(configuration().getFailureThrottleMaxBackoff())
             );
+
+        executor = authenticationExecutor();
+        metrics.executor(executor);
+        concurrencyLimit =
+            configuration().isBulkheadAdaptiveLimit()
+                ? new AdaptiveLimit(configuration().getBulkheadMinLimit(), executor.getMaximumPoolSize(), this::resizeExecutor)
+                : null;
+        circuitBreaker =
+            new CircuitBreaker(
+                configuration().getCircuitBreakerFailureRateThreshold(),
+                configuration().getCircuitBreakerWindowSize(),
+                Duration.ofMillis(configuration().getCircuitBreakerOpenDuration()),
+                configuration().getCircuitBreakerHalfOpenProbes()
+            );
+        metrics.circuitBreaker(circuitBreaker);
+
+        warmUp = warmUp(pools, routers);
+    }
+
+    /**
+     * Initializes the pools in parallel, in background. Each pool opens its initial connections one after the other, so
+     * that the warm-up takes as long as the slowest pool. Routed servers are probed once their pools are initialized.
+     */
+    private CompletableFuture<Void> warmUp(List<PooledConnectionFactory> pools, List<LdapRouter> routers) {
+        long start = System.nanoTime();
+        AtomicInteger counter = new AtomicInteger();
+        warmUpExecutor =
+            Executors.newFixedThreadPool(
+                pools.size(),
+                r -> {
+                    final Thread t = new Thread(r, "ldap-warmup-" + name() + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            );
+        CompletableFuture<?>[] initialized = pools
+            .stream()
+            .map(pool ->
+                CompletableFuture
+                    .runAsync(pool::initialize, warmUpExecutor)
+                    .exceptionally(throwable -> {
+                        logger.warn("Unable to initialize LDAP connections of resource [{}]", name(), throwable);
+                        return null;
+                    })
+            )
+            .toArray(CompletableFuture[]::new);
+        ExecutorService initializer = warmUpExecutor;
+        return CompletableFuture
+            .allOf(initialized)
+            .whenComplete((ignored, throwable) -> {
+                if (initializer.isShutdown()) {
+                    // stopped while warming up
+                    return;
+                }
+                initializer.shutdown();
+                routers.forEach(LdapRouter::initialize);
+                if (mirror != null) {
+                    mirror.start();
+                }
+                if (watcher != null) {
+                    watcher.start();
+                }
+                long duration = System.nanoTime() - start;
+                metrics.startup(duration, TimeUnit.NANOSECONDS);
+                logger.info(
+                    "LDAP connections to source[{}] initialized in {} ms",
+                    configuration().getContextSourceUrl(),
+                    TimeUnit.NANOSECONDS.toMillis(duration)
+                );
+            });
     }
 
     @Override
     protected void doStop() throws Exception {
         super.doStop();
 
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+
+        if (warmUpExecutor != null) {
+            warmUpExecutor.shutdownNow();
+            warmUpExecutor = null;
+        }
+
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+            hedgeExecutor = null;
+        }
+
+        if (dnBatchExecutor != null) {
+            dnBatchExecutor.shutdownNow();
+            dnBatchExecutor = null;
+        }
+
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+
         if (connectionFactory != null) {
             logger.info("Closing LDAP connections to source[{}]", configuration().getContextSourceUrl());
             connectionFactory.close();
+            connectionFactory = null;
+        }
+
+        if (bindConnectionFactory != null) {
+            bindConnectionFactory.close();
+            bindConnectionFactory = null;
         }
 
         if (cache != null) {
+            saveSnapshot();
             cache.clear();
-            cache.close();
             cache = null;
         }
+        store = null;
+
+        if (failedAuthentications != null) {
+            failedAuthentications.clear();
+            failedAuthentications = null;
+        }
+
+        if (failureThrottle != null) {
+            failureThrottle.clear();
+            failureThrottle = null;
+        }
+
+        if (dnCache != null) {
+            dnCache.clear();
+            dnCache = null;
+        }
+
+        if (mirror != null) {
+            mirror.close();
+            mirror = null;
+        }
+
+        if (groupResolver != null) {
+            groupResolver.clear();
+            groupResolver = null;
+        }
+
+        if (metrics != null) {
+            metrics.close();
+        }
     }
 
-    private PooledConnectionFactory pooledConnectionFactory() {
-        @SuppressWarnings("java:S5852")
-        String contextSourceUrl = configuration().getContextSourceUrl().trim().replaceAll("\\s*,\\s*", " ");
-        return PooledConnectionFactory
-            .builder()
-            .config(
-                ConnectionConfig
+    /**
+     * Snapshots are written to the directory set by the gateway administrator, the resource configuration only naming the
+     * file, so that an API publisher cannot read, replace or delete other files of the gateway.
+     *
+     * @return the snapshot of the cache, <code>null</code> if not configured
+     */
+    private CacheSnapshot snapshot() {
+        String fileName = configuration().getCacheSnapshotPath();
+        String key = configuration().getCacheSnapshotKey();
+        if (fileName == null || fileName.isBlank() || key == null || key.isEmpty() || configuration().getCacheMaxElements() <= 0) {
+            return null;
+        }
+        String directory = snapshotDirectory();
+        if (directory == null || directory.isBlank()) {
+            logger.warn(
+                "No cache snapshot directory set in the gateway configuration ({}), cache of LDAP resource [{}] is not saved",
+                SNAPSHOT_DIRECTORY_PROPERTY,
+                name()
+            );
+            return null;
+        }
+        try {
+            return new CacheSnapshot(Path.of(directory.trim()), fileName.trim(), key);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Invalid cache snapshot of LDAP resource [{}]: {}", name(), ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the directory of the cache snapshots, from the gateway configuration or the system properties
+     */
+    private String snapshotDirectory() {
+        Configuration gatewayConfiguration = component(Configuration.class);
+        String directory = gatewayConfiguration == null ? null : gatewayConfiguration.getProperty(SNAPSHOT_DIRECTORY_PROPERTY);
+        return directory != null ? directory : System.getProperty(SNAPSHOT_DIRECTORY_PROPERTY);
+    }
+
+    private CacheSnapshot.Restored restoreSnapshot() {
+        CacheSnapshot snapshot = snapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.read(settingsDigest());
+        } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+            logger.warn("Unable to restore cached authentications of LDAP resource [{}], starting with an empty cache", name(), ex);
+            return null;
+        }
+    }
+
+    private void saveSnapshot() {
+        CacheSnapshot snapshot = snapshot();
+        if (snapshot != null && fingerprinter != null) {
+            try {
+                int saved = snapshot.write(settingsDigest(), fingerprinter.secret(), cache);
+                logger.info("Saved {} cached authentications of LDAP resource [{}]", saved, name());
+            } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+                logger.warn("Unable to save cached authentications of LDAP resource [{}]", name(), ex);
+            }
+        }
+    }
+
+    /**
+     * The store of authentications is provided by the gateway, or built on its cache manager.
+     */
+    private AuthenticationStore authenticationStore() {
+        AuthenticationStore provided = component(AuthenticationStore.class);
+        if (provided != null) {
+            return provided;
+        }
+        CacheManager cacheManager = component(CacheManager.class);
+        if (cacheManager != null) {
+            return new CacheManagerAuthenticationStore(
+                cacheManager,
+                storeNamespace(),
+                configuration().getCacheMaxElements(),
+                configuration().getCacheTimeToLive()
+            );
+        }
+        logger.warn("No cache manager available, authentications of LDAP resource [{}] are not shared with other nodes", name());
+        return null;
+    }
+
+    /**
+     * The shared cache is named after the resource and a digest of its settings, cache size and time to live included, so
+     * that it is the same on all the nodes running this resource, and that resources configured differently never share it.
+     */
+    private String storeNamespace() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(settingsDigest());
+            digest.update(
+                (configuration().getCacheMaxElements() + "\0" + configuration().getCacheTimeToLive()).getBytes(StandardCharsets.UTF_8)
+            );
+            return Optional.ofNullable(name()).orElse("ldap") + "-" + HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Digest of the settings that determine the result of an authentication, so that only resources with the same
+     * configuration share authentications or restore a snapshot. Used as secret of the shared fingerprints, it cannot be
+     * computed without the service account password.
+     */
+    private byte[] settingsDigest() {
+        LdapAuthenticationProviderResourceConfiguration configuration = configuration();
+        String settings = String.join(
+            "\0",
+            configuration.getContextSourceUrl(),
+            configuration.getContextSourceBase(),
+            configuration.getContextSourceUsername(),
+            configuration.getContextSourcePassword(),
+            configuration.getUserSearchBase(),
+            configuration.getUserSearchFilter(),
+            configuration.getUserDnPattern(),
+            configuration.getBindContextSourceUrl(),
+            String.valueOf(configuration.getAttributes()),
+            String.valueOf(configuration.getGroupResolution()),
+            configuration.getGroupSearchBase(),
+            configuration.getGroupSearchFilter(),
+            String.valueOf(configuration.getGroupMaxDepth()),
+            configuration.getGroupAttribute()
+        );
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(settings.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private <T> T component(Class<T> componentClass) {
+        try {
+            return deploymentContext == null ? null : deploymentContext.getComponent(componentClass);
+        } catch (RuntimeException ex) {
+            logger.debug("No {} available from the deployment context", componentClass.getSimpleName(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return the id of the API the resource is deployed for, <code>null</code> if unknown
+     */
+    private String apiId() {
+        try {
+            return deploymentContext == null ? null : deploymentContext.getTemplateEngine().evalNow("{#api.id}", String.class);
+        } catch (RuntimeException ex) {
+            logger.debug("No API id available from the deployment context", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Meters are exported through the registry of the gateway, or the global one if the gateway doesn't provide any.
+     */
+    private MeterRegistry meterRegistry() {
+        MeterRegistry registry = component(MeterRegistry.class);
+        return registry != null ? registry : Metrics.globalRegistry;
+    }
+
+    /**
+     * With a DN pattern, the user DN is built from the username and authentication is a single bind. Otherwise the user
+     * is first searched with the service account, along with its attributes if they don't have to be read as the user.
+     */
+    private DnResolver dnResolver(Hedger<String> hedger) {
+        String userDnPattern = configuration().getUserDnPattern();
+        if (userDnPattern != null && !userDnPattern.isBlank()) {
+            // replace *={0} DN pattern (ldaptive use String.format)
+            return new FormatDnResolver(withContextSourceBase(userDnPattern.trim()).replace("%", "%%").replace("{0}", "%1$s"));
+        }
+
+        String searchBase = withContextSourceBase(configuration().getUserSearchBase());
+        // replace *={0} authentication filter (ldaptive use *={user})
+        String searchFilter = configuration().getUserSearchFilter().replace("{0}", "{user}");
+
+        DnResolver searchDnResolver;
+        if (configuration().isAttributesFromSearch()) {
+            EntrySearchDnResolver entrySearchDnResolver = new EntrySearchDnResolver(
+                connectionFactory,
+                searchBase,
+                searchFilter,
+                getUserAttributes()
+            );
+            AttributeFilter attributeFilter = attributeFilter();
+            if (attributeFilter.isEnabled()) {
+                entrySearchDnResolver.setEntryHandlers(attributeFilter);
+            }
+            searchDnResolver = entrySearchDnResolver;
+        } else {
+            searchDnResolver =
+                SearchDnResolver
                     .builder()
-                    .url(contextSourceUrl)
-                    .useStartTLS(configuration().isUseStartTLS())
-                    .connectTimeout(Duration.ofMillis(configuration().getConnectTimeout()))
-                    .responseTimeout(Duration.ofMillis(configuration().getResponseTimeout()))
-                    .connectionInitializers(
-                        BindConnectionInitializer
-                            .builder()
-                            .dn(configuration().getContextSourceUsername())
-                            .credential(configuration().getContextSourcePassword())
-                            .build()
-                    )
-                    .build()
-            )
-            .failFastInitialize(false)
-            .min(configuration().getMinPoolSize())
-            .max(configuration().getMaxPoolSize())
-            .validatePeriodically(true)
-            .validator(new SearchConnectionValidator())
+                    .factory(connectionFactory)
+                    .dn(searchBase)
+                    .filter(searchFilter)
+                    .subtreeSearch(true)
+                    .allowMultipleDns(false)
+                    .build();
+        }
+        DnResolver search = searchDnResolver;
+        // hedged below the cache, so that cached DNs are resolved right away and do not skew the latencies
+        searchDnResolver = user -> hedger.call(() -> search.resolve(user));
+        if (configuration().getDnBatchMaxSize() > 1) {
+            // batches are searched apart from the attempts of the login that opened them
+            searchDnResolver = batchingDnResolver(searchBase, searchFilter, searchDnResolver);
+        }
+
+        if (configuration().isMirror()) {
+            mirror = directoryMirror(searchBase, searchFilter, searchDnResolver);
+            if (mirror != null) {
+                // the mirror already holds the DNs
+                return mirror;
+            }
+        }
+
+        if (configuration().getDnCacheMaxElements() > 0) {
+            dnCache =
+                new CachingDnResolver(
+                    searchDnResolver,
+                    configuration().getDnCacheMaxElements(),
+                    Duration.ofMillis(configuration().getDnCacheTimeToLive())
+                );
+            return dnCache;
+        }
+        return searchDnResolver;
+    }
+
+    /**
+     * Concurrent user searches are combined into one, provided the filter compares an attribute to the username so that
+     * each entry found can be given back to its login.
+     */
+    private DnResolver batchingDnResolver(String searchBase, String searchFilter, DnResolver searchDnResolver) {
+        if (BatchingDnResolver.keyAttribute(searchFilter) == null) {
+            logger.warn(
+                "User search filter [{}] of LDAP resource [{}] does not compare an attribute to the username, DNs are not batched",
+                searchFilter,
+                name()
+            );
+            return searchDnResolver;
+        }
+        BatchingDnResolver batchingDnResolver = new BatchingDnResolver(
+            connectionFactory,
+            searchBase,
+            searchFilter,
+            configuration().isAttributesFromSearch() ? getUserAttributes() : null,
+            configuration().getDnBatchMaxSize(),
+            Duration.ofMillis(configuration().getDnBatchWindow()),
+            Duration.ofMillis(configuration().getResponseTimeout()),
+            searchDnResolver,
+            dnBatchExecutor(),
+            metrics
+        );
+        AttributeFilter attributeFilter = attributeFilter();
+        if (configuration().isAttributesFromSearch() && attributeFilter.isEnabled()) {
+            batchingDnResolver.setEntryHandlers(attributeFilter);
+        }
+        return batchingDnResolver;
+    }
+
+    /**
+     * Users are mirrored with a connection of their own, bound with the service account, so that syncing the mirror does
+     * not take connections from the authentications.
+     */
+    private DirectoryMirror directoryMirror(String searchBase, String searchFilter, DnResolver searchDnResolver) {
+        if (BatchingDnResolver.keyAttribute(searchFilter) == null) {
+            logger.warn(
+                "User search filter [{}] of LDAP resource [{}] does not compare an attribute to the username, users are not mirrored",
+                searchFilter,
+                name()
+            );
+            return null;
+        }
+        AttributeFilter attributeFilter = attributeFilter();
+        DirectoryMirror directoryMirror = new DirectoryMirror(
+            name(),
+            connectionConfig(String.join(" ", urls(configuration().getContextSourceUrl())), serviceAccountInitializer()),
+            searchBase,
+            searchFilter,
+            getUserAttributes(),
+            configuration().getMirrorPageSize(),
+            Duration.ofMillis(configuration().getMirrorSyncInterval()),
+            Duration.ofMillis(configuration().getMirrorReloadInterval()),
+            attributeFilter.isEnabled() ? attributeFilter : null,
+            searchDnResolver
+        );
+        metrics.mirror(directoryMirror);
+        return directoryMirror;
+    }
+
+    /**
+     * Users are watched under the search base, or under the context source base with a DN pattern. The DNs of the users
+     * with cached authentications are checked for deletion.
+     */
+    private DirectoryWatcher directoryWatcher() {
+        String userDnPattern = configuration().getUserDnPattern();
+        boolean pattern = userDnPattern != null && !userDnPattern.isBlank();
+        return new DirectoryWatcher(
+            name(),
+            connectionFactory,
+            withContextSourceBase(pattern ? "" : configuration().getUserSearchBase()),
+            cache::dns,
+            Duration.ofMillis(configuration().getCacheInvalidationInterval()),
+            this::invalidateEntry
+        );
+    }
+
+    private String withContextSourceBase(String relativeDn) {
+        return Optional
+            .ofNullable(relativeDn)
+            .map(dn -> {
+                if (!dn.isEmpty()) {
+                    return dn.concat(LDAP_SEPARATOR);
+                }
+                return dn;
+            })
+            .orElse("")
+            .concat(configuration().getContextSourceBase());
+    }
+
+    private ConnectionFactory searchConnectionFactory(List<PooledConnectionFactory> pools, List<LdapRouter> routers) {
+        ConnectionInitializer serviceAccountInitializer = serviceAccountInitializer();
+        return connectionFactory(
+            "search",
+            configuration().getContextSourceUrl(),
+            pools,
+            routers,
+            url ->
+                pooledConnectionFactory(
+                    "search",
+                    connectionConfig(url, serviceAccountInitializer),
+                    configuration().getMinPoolSize(),
+                    configuration().getMaxPoolSize()
+                )
+        );
+    }
+
+    private ConnectionInitializer serviceAccountInitializer() {
+        BindConnectionInitializer bindConnectionInitializer = BindConnectionInitializer
+            .builder()
+            .dn(configuration().getContextSourceUsername())
+            .credential(configuration().getContextSourcePassword())
             .build();
+        return conn -> {
+            metrics.serviceAccountBind();
+            return bindConnectionInitializer.initialize(conn);
+        };
+    }
+
+    /**
+     * Users are bound on the servers of <code>bindContextSourceUrl</code> if set, on the search servers otherwise.
+     */
+    private ConnectionFactory bindConnectionFactory(List<PooledConnectionFactory> pools, List<LdapRouter> routers) {
+        String bindUrl = configuration().getBindContextSourceUrl();
+        return connectionFactory(
+            "bind",
+            bindUrl == null || bindUrl.isBlank() ? configuration().getContextSourceUrl() : bindUrl,
+            pools,
+            routers,
+            url ->
+                pooledConnectionFactory(
+                    "bind",
+                    connectionConfig(url),
+                    configuration().getBindMinPoolSize(),
+                    configuration().getBindMaxPoolSize()
+                )
+        );
+    }
+
+    /**
+     * With several servers and a load balancing strategy, each server gets its own pool and connections are routed across
+     * them. Otherwise a single pool fails over from one server to the next, in order.
+     *
+     * @param urls        comma-separated URLs of the servers
+     * @param pools       to which the pools created are added, to be initialized
+     * @param routers     to which the router created is added, to be initialized
+     * @param poolFactory building the pool of a space-separated URL
+     */
+    private ConnectionFactory connectionFactory(
+        String name,
+        String urls,
+        List<PooledConnectionFactory> pools,
+        List<LdapRouter> routers,
+        Function<String, PooledConnectionFactory> poolFactory
+    ) {
+        List<String> servers = urls(urls);
+        LoadBalancingStrategy strategy = configuration().getLoadBalancingStrategy();
+        if (servers.size() <= 1 || strategy == null || strategy == LoadBalancingStrategy.ACTIVE_PASSIVE) {
+            PooledConnectionFactory pool = poolFactory.apply(String.join(" ", servers));
+            pools.add(pool);
+            metrics.pool(name, pool);
+            return pool;
+        }
+        LdapRouter router = new LdapRouter(
+            name,
+            strategy,
+            servers.stream().map(url -> new LdapServer(url, poolFactory.apply(url), configuration().getServerEjectionThreshold())).toList(),
+            Duration.ofMillis(configuration().getServerProbeInterval())
+        );
+        router.servers().forEach(server -> pools.add(server.pool()));
+        routers.add(router);
+        metrics.router(name, router);
+        return router;
+    }
+
+    /**
+     * @return the URLs of a comma-separated list
+     */
+    private static List<String> urls(String urls) {
+        return Arrays.stream(urls.split(LDAP_SEPARATOR)).map(String::trim).filter(url -> !url.isEmpty()).toList();
+    }
+
+    /**
+     * Pools record the time taken to borrow and to validate their connections.
+     */
+    private PooledConnectionFactory pooledConnectionFactory(
+        String name,
+        ConnectionConfig connectionConfig,
+        int minPoolSize,
+        int maxPoolSize
+    ) {
+        PooledConnectionFactory pool = new TimedPooledConnectionFactory(name, connectionConfig, metrics);
+        pool.setFailFastInitialize(false);
+        pool.setMinPoolSize(minPoolSize);
+        pool.setMaxPoolSize(maxPoolSize);
+        pool.setValidatePeriodically(true);
+        pool.setValidator(new TimedConnectionValidator(name, metrics));
+        return pool;
+    }
+
+    private ConnectionConfig connectionConfig(String url, ConnectionInitializer... connectionInitializers) {
+        return ConnectionConfig
+            .builder()
+            .url(url)
+            .useStartTLS(configuration().isUseStartTLS())
+            .connectTimeout(Duration.ofMillis(configuration().getConnectTimeout()))
+            .responseTimeout(Duration.ofMillis(configuration().getResponseTimeout()))
+            .connectionInitializers(connectionInitializers)
+            .build();
+    }
+
+    /**
+     * One worker per pooled connection: more threads would only wait for a connection from the pool, queued
+     * authentications are picked up as soon as a connection is released. The queue is bounded, so that authentications
+     * do not pile up while the directory is degraded, a size of 0 meaning that none may wait.
+     */
+    private ThreadPoolExecutor authenticationExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        int workers = workers();
+        int queueSize = configuration().getBulkheadQueueSize();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+            workers,
+            workers,
+            60L,
+            TimeUnit.SECONDS,
+            queueSize > 0 ? new LinkedBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+            r -> {
+                final Thread t = new Thread(r, "ldap-auth-" + name() + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * A batch holding at least two logins, there are at most half as many batches searched as there are workers, unless
+     * logins give up on their batches.
+     */
+    private ExecutorService dnBatchExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        dnBatchExecutor =
+            new ThreadPoolExecutor(
+                0,
+                workers(),
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    final Thread t = new Thread(r, "ldap-dn-batch-" + name() + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            );
+        return dnBatchExecutor;
+    }
+
+    private int workers() {
+        return Math.max(configuration().getMaxPoolSize(), configuration().getBindMaxPoolSize());
+    }
+
+    /**
+     * Attempts only last as long as an LDAP operation, at most two of them running for each authentication worker. An
+     * attempt cancelled while blocked on the directory keeps its thread until the response timeout, attempts beyond the
+     * limit being rejected rather than piling up.
+     */
+    private ExecutorService hedgeExecutor() {
+        if (configuration().getHedgingPercentile() <= 0 || configuration().getHedgingBudget() <= 0) {
+            return null;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(
+            0,
+            2 * workers(),
+            60L,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            r -> {
+                final Thread t = new Thread(r, "ldap-hedge-" + name() + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+    }
+
+    /**
+     * Operations are hedged only across the servers of a router, a single pool having no other server to send them to.
+     * Without a factory, the operation is only bounded by the deadline of the authentication.
+     */
+    private <T> Hedger<T> hedger(ConnectionFactory factory, String phase, Consumer<T> release) {
+        return new Hedger<>(
+            factory instanceof LdapRouter router ? router : null,
+            configuration().getHedgingPercentile(),
+            configuration().getHedgingBudget(),
+            hedgeExecutor,
+            () -> metrics.hedged(phase),
+            release
+        );
+    }
+
+    /**
+     * Applies the adaptive limit to the number of workers, busy workers above it finishing their authentication first.
+     */
+    private void resizeExecutor(int workers) {
+        ThreadPoolExecutor threadPoolExecutor = executor;
+        if (threadPoolExecutor != null) {
+            // the core size may never exceed the maximum size
+            if (workers > threadPoolExecutor.getMaximumPoolSize()) {
+                threadPoolExecutor.setMaximumPoolSize(workers);
+                threadPoolExecutor.setCorePoolSize(workers);
+            } else {
+                threadPoolExecutor.setCorePoolSize(workers);
+                threadPoolExecutor.setMaximumPoolSize(workers);
+            }
+        }
+    }
+
+    /**
+     * Groups are searched with the service account, nested groups being cached apart from authentications.
+     */
+    private GroupResolver groupResolver() {
+        GroupResolution resolution = configuration().getGroupResolution();
+        if (resolution == null || resolution == GroupResolution.NONE) {
+            return null;
+        }
+        return new GroupResolver(
+            resolution,
+            connectionFactory,
+            withContextSourceBase(configuration().getGroupSearchBase()),
+            // replace *={0} group filter (member DN)
+            configuration().getGroupSearchFilter().replace("{0}", "{member}"),
+            configuration().getGroupMaxDepth(),
+            configuration().getGroupCacheMaxElements(),
+            Duration.ofMillis(configuration().getGroupMembershipCacheTimeToLive()),
+            Duration.ofMillis(configuration().getGroupTreeCacheTimeToLive())
+        );
+    }
+
+    private AttributeFilter attributeFilter() {
+        return new AttributeFilter(
+            configuration().getAttributes(),
+            configuration().isExcludeBinaryAttributes(),
+            configuration().getAttributeMaxValueSize()
+        );
     }
 
     private String[] getUserAttributes() {
@@ -199,6 +1332,14 @@ public class LdapAuthenticationProviderResource extends AuthenticationProviderRe
         if (configuration().getAttributes() != null && !configuration().getAttributes().isEmpty()) {
             userAttributes = configuration().getAttributes().toArray(new String[0]);
         }
+        // memberOf is operational on some directories, it is only returned when requested by name
+        if (
+            configuration().getGroupResolution() == GroupResolution.MEMBER_OF &&
+            Arrays.stream(userAttributes).noneMatch(GroupResolver.MEMBER_OF_ATTRIBUTE::equalsIgnoreCase)
+        ) {
+            userAttributes =
+                Stream.concat(Arrays.stream(userAttributes), Stream.of(GroupResolver.MEMBER_OF_ATTRIBUTE)).toArray(String[]::new);
+        }
         return userAttributes;
     }
 
@@ -211,8 +1352,22 @@ public class LdapAuthenticationProviderResource extends AuthenticationProviderRe
         }
     }
 
+    public LdapMetrics metrics() {
+        return metrics;
+    }
+
+    // Visible for tests
+    CompletableFuture<Void> warmUp() {
+        return warmUp;
+    }
+
+    // Visible for tests
+    DirectoryMirror mirror() {
+        return mirror;
+    }
+
     // Visible for tests
     Authentication getCachedAuthentication(String username, String password) {
-        return cache.get(new LRUCache.Key(username, password));
+        return cache.get(fingerprinter.fingerprint(username, password));
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.handler.LdapEntryHandler;
+
+/**
+ * Drops the attributes of user entries that should not be kept, as entries are received from the LDAP server:
+ * <ul>
+ *     <li>binary attributes such as photos and certificates, unless explicitly requested: LDAP has no way to exclude
+ *     attributes from a search, they are returned when all user attributes are requested</li>
+ *     <li>values larger than a given size</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public class AttributeFilter implements LdapEntryHandler {
+
+    /**
+     * Binary attributes of the standard user schemas, and of Active Directory.
+     */
+    static final Set<String> BINARY_ATTRIBUTES = Set.of(
+        "audio",
+        "authorityrevocationlist",
+        "cacertificate",
+        "certificaterevocationlist",
+        "crosscertificatepair",
+        "jpegphoto",
+        "objectguid",
+        "objectsid",
+        "photo",
+        "thumbnailphoto",
+        "usercertificate",
+        "userpkcs12",
+        "usersmimecertificate"
+    );
+
+    /**
+     * Names of the explicitly requested attributes, lower case.
+     */
+    private final Set<String> requestedAttributes;
+
+    private final boolean excludeBinaryAttributes;
+
+    /**
+     * Maximum size of a value in bytes, <code>0</code> for no limit.
+     */
+    private final int maxValueSize;
+
+    /**
+     * @param requestedAttributes     explicitly requested, never excluded as binary, <code>null</code> if all are requested
+     * @param excludeBinaryAttributes whether binary attributes not explicitly requested are dropped
+     * @param maxValueSize            in bytes above which values are dropped, <code>0</code> for no limit
+     */
+    public AttributeFilter(
+        final Collection<String> requestedAttributes,
+        final boolean excludeBinaryAttributes,
+        final int maxValueSize
+    ) {
+        this.requestedAttributes =
+            requestedAttributes == null
+                ? Set.of()
+                : requestedAttributes.stream().map(AttributeFilter::baseName).collect(Collectors.toSet());
+        this.excludeBinaryAttributes = excludeBinaryAttributes;
+        this.maxValueSize = maxValueSize;
+    }
+
+    /**
+     * @return <code>true</code> if this filter may drop attributes
+     */
+    public boolean isEnabled() {
+        return excludeBinaryAttributes || maxValueSize > 0;
+    }
+
+    @Override
+    public LdapEntry apply(final LdapEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        for (LdapAttribute attribute : new ArrayList<>(entry.getAttributes())) {
+            String name = baseName(attribute.getName());
+            if (excludeBinaryAttributes && isBinary(name, attribute) && !requestedAttributes.contains(name)) {
+                entry.removeAttributes(attribute);
+            } else if (maxValueSize > 0) {
+                limitValueSize(entry, attribute);
+            }
+        }
+        return entry;
+    }
+
+    private void limitValueSize(final LdapEntry entry, final LdapAttribute attribute) {
+        Collection<byte[]> values = attribute.getBinaryValues();
+        List<byte[]> kept = values.stream().filter(value -> value.length <= maxValueSize).toList();
+        if (kept.size() < values.size()) {
+            entry.removeAttributes(attribute);
+            if (!kept.isEmpty()) {
+                entry.addAttributes(new LdapAttribute(attribute.getName(), kept.toArray(new byte[0][])));
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the attribute is flagged as binary, or is a known binary attribute
+     */
+    public static boolean isBinary(final LdapAttribute attribute) {
+        return isBinary(baseName(attribute.getName()), attribute);
+    }
+
+    private static boolean isBinary(final String name, final LdapAttribute attribute) {
+        return attribute.isBinary() || BINARY_ATTRIBUTES.contains(name);
+    }
+
+    /**
+     * @return the attribute name without its options, lower case
+     */
+    private static String baseName(final String name) {
+        int options = name.indexOf(';');
+        return (options < 0 ? name : name.substring(0, options)).toLowerCase(Locale.ROOT);
+    }
+}
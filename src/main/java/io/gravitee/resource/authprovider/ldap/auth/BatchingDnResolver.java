@@ -0,0 +1,355 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import io.gravitee.resource.authprovider.ldap.concurrent.Deadline;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.FilterTemplate;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+import org.ldaptive.auth.DnResolver;
+import org.ldaptive.auth.User;
+import org.ldaptive.handler.LdapEntryHandler;
+
+/**
+ * Resolves the DNs of concurrent logins with a single search, OR-ing the user search filter of each username.
+ * <p>
+ * The first login to arrive opens a batch and waits for the window to elapse, or for the batch to be full, before
+ * searching for all the usernames of the batch. Entries are mapped back to usernames through the attribute the user
+ * search filter compares the username to, so that only filters holding an equality such as <code>uid={user}</code>
+ * can be batched. The logins of a batch of a single login, logins whose username matched no entry, and the logins of
+ * a batch truncated by the size limit of the directory are resolved by the delegate, one search per username, as the
+ * directory may match usernames the batch cannot map back.
+ * <p>
+ * Logins wait for their batch on their own worker, so that batches never hold more logins than there are workers, and
+ * fall back to the delegate on that worker as well. They wait at most for the window and the response timeout, or
+ * until the {@link Deadline} of the authentication. The search of a batch runs on an executor of its own, so that it
+ * goes on for the other logins of the batch when the login that opened it gives up. A batch the executor rejects is
+ * resolved by the delegate.
+ *
+ * @author GraviteeSource Team
+ */
+public class BatchingDnResolver implements DnResolver {
+
+    private static final Pattern KEY_ATTRIBUTE = Pattern.compile("([\\w.;-]+)\\s*=\\s*\\{user}\\s*(\\)|$)");
+
+    private final ConnectionFactory factory;
+
+    private final String baseDn;
+
+    /**
+     * User search filter, the username being the <code>user</code> parameter.
+     */
+    private final String filter;
+
+    /**
+     * Attribute holding the username, compared by the filter.
+     */
+    private final String keyAttribute;
+
+    /**
+     * Attributes of the user entry kept in the {@link LoginContext}, <code>null</code> when only the DN is resolved.
+     */
+    private final String[] returnAttributes;
+
+    private final int maxSize;
+
+    private final long windowNanos;
+
+    private final long timeoutNanos;
+
+    private final DnResolver delegate;
+
+    private final Executor executor;
+
+    private final LdapMetrics metrics;
+
+    private LdapEntryHandler[] entryHandlers = new LdapEntryHandler[0];
+
+    /**
+     * Batch logins are currently added to, <code>null</code> until a login opens a new one. Guarded by <code>this</code>.
+     */
+    private Batch batch;
+
+    /**
+     * @param factory          connections of the service account
+     * @param baseDn           of the user search
+     * @param filter           user search filter, holding an equality with the <code>user</code> parameter
+     * @param returnAttributes user attributes to keep in the {@link LoginContext}, <code>null</code> for the DN only
+     * @param maxSize          logins searched at once
+     * @param window           a login waits for others before searching
+     * @param timeout          response timeout of the batch search
+     * @param delegate         resolving a single login
+     * @param executor         running the searches of the batches
+     * @param metrics          recording batch sizes and waits
+     */
+    public BatchingDnResolver(
+        final ConnectionFactory factory,
+        final String baseDn,
+        final String filter,
+        final String[] returnAttributes,
+        final int maxSize,
+        final Duration window,
+        final Duration timeout,
+        final DnResolver delegate,
+        final Executor executor,
+        final LdapMetrics metrics
+    ) {
+        this.factory = factory;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.keyAttribute = keyAttribute(filter);
+        if (keyAttribute == null) {
+            throw new IllegalArgumentException("User search filter " + filter + " does not compare an attribute to the username");
+        }
+        this.returnAttributes = returnAttributes;
+        this.maxSize = maxSize;
+        this.windowNanos = window.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+        this.delegate = delegate;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the attribute the filter compares the username to, <code>null</code> if the filter cannot be batched
+     */
+    public static String keyAttribute(final String filter) {
+        if (filter.indexOf("{user}") != filter.lastIndexOf("{user}")) {
+            return null;
+        }
+        Matcher matcher = KEY_ATTRIBUTE.matcher(filter);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @param handlers applied to the user entries as they are received
+     */
+    public void setEntryHandlers(final LdapEntryHandler... handlers) {
+        this.entryHandlers = handlers;
+    }
+
+    @Override
+    public String resolve(final User user) throws LdapException {
+        if (user == null || user.getIdentifier() == null || user.getIdentifier().isEmpty()) {
+            return null;
+        }
+
+        Login login = new Login(user, System.nanoTime());
+        Batch joined;
+        boolean leader;
+        synchronized (this) {
+            leader = batch == null;
+            if (leader) {
+                batch = new Batch();
+            }
+            joined = batch;
+            joined.logins.add(login);
+            if (joined.logins.size() >= maxSize) {
+                batch = null;
+                joined.full.countDown();
+            }
+        }
+
+        if (leader) {
+            try {
+                joined.full.await(windowNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (batch == joined) {
+                    batch = null;
+                }
+            }
+            submit(joined.logins);
+        }
+
+        String dn = await(login);
+        // not resolved by the batch
+        return dn != null ? dn : delegate.resolve(login.user);
+    }
+
+    private String await(final Login login) throws LdapException {
+        long timeout = Math.min(windowNanos + timeoutNanos, Deadline.remainingNanos());
+        try {
+            return login.dn.get(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new LdapException(ResultCode.LDAP_TIMEOUT, "Timed out waiting for the DN search of: " + login.user);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException ldapEx) {
+                throw ldapEx;
+            }
+            throw new LdapException(e.getCause() instanceof Exception ex ? ex : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        }
+    }
+
+    private void submit(final List<Login> logins) {
+        if (logins.size() == 1) {
+            search(logins);
+            return;
+        }
+        try {
+            executor.execute(() -> search(logins));
+        } catch (RejectedExecutionException e) {
+            logins.forEach(login -> login.dn.complete(null));
+        }
+    }
+
+    /**
+     * Resolves the DN of each login, completing all of them whatever happens, with <code>null</code> for the logins the
+     * batch could not resolve.
+     */
+    private void search(final List<Login> logins) {
+        long start = System.nanoTime();
+        metrics.dnBatch(logins.size());
+        logins.forEach(login -> metrics.dnBatchWait(start - login.enqueued, TimeUnit.NANOSECONDS));
+        try {
+            if (logins.size() == 1) {
+                logins.get(0).dn.complete(null);
+                return;
+            }
+
+            SearchOperation operation = new SearchOperation(factory);
+            operation.setEntryHandlers(entryHandlers);
+            SearchResponse response = operation.execute(
+                SearchRequest
+                    .builder()
+                    .dn(baseDn)
+                    .filter(filter(logins))
+                    .scope(SearchScope.SUBTREE)
+                    .returnAttributes(requestedAttributes())
+                    // a second entry per username is enough to reject an ambiguous one
+                    .sizeLimit(2 * logins.size())
+                    .build()
+            );
+            boolean truncated = response.getResultCode() == ResultCode.SIZE_LIMIT_EXCEEDED;
+
+            Map<String, List<LdapEntry>> entries = new HashMap<>();
+            for (LdapEntry entry : response.getEntries()) {
+                LdapAttribute key = entry.getAttribute(keyAttribute);
+                if (key != null) {
+                    key.getStringValues().forEach(value -> entries.computeIfAbsent(normalize(value), v -> new ArrayList<>()).add(entry));
+                }
+            }
+            for (Login login : logins) {
+                List<LdapEntry> found = entries.getOrDefault(normalize(login.user.getIdentifier()), List.of());
+                if (found.size() > 1) {
+                    login.dn.completeExceptionally(new LdapException("Found more than (1) DN for: " + login.user));
+                } else if (found.size() == 1 && !truncated) {
+                    login.dn.complete(found(login, found.get(0)));
+                } else {
+                    login.dn.complete(null);
+                }
+            }
+        } catch (LdapException | RuntimeException e) {
+            logins.forEach(login -> login.dn.completeExceptionally(e));
+        }
+    }
+
+    private String found(final Login login, final LdapEntry entry) {
+        if (returnAttributes != null && login.user.getContext() instanceof LoginContext loginContext) {
+            LdapEntry kept = entry;
+            if (!isRequested(keyAttribute)) {
+                // the entry is shared by the logins whose usernames only differ by case, it is left untouched
+                kept = new LdapEntry();
+                kept.setDn(entry.getDn());
+                for (LdapAttribute attribute : entry.getAttributes()) {
+                    if (!attribute.getName().equalsIgnoreCase(keyAttribute)) {
+                        kept.addAttributes(attribute);
+                    }
+                }
+            }
+            loginContext.setEntry(kept);
+        }
+        return entry.getDn();
+    }
+
+    private String filter(final List<Login> logins) {
+        return logins
+            .stream()
+            .map(login -> {
+                FilterTemplate filterTemplate = new FilterTemplate(filter);
+                filterTemplate.setParameter("user", login.user.getIdentifier());
+                String formatted = filterTemplate.format();
+                return formatted.startsWith("(") ? formatted : "(" + formatted + ")";
+            })
+            .distinct()
+            .collect(Collectors.joining("", "(|", ")"));
+    }
+
+    private String[] requestedAttributes() {
+        if (returnAttributes == null) {
+            return new String[] { keyAttribute };
+        }
+        if (isRequested(keyAttribute)) {
+            return returnAttributes;
+        }
+        return Stream.concat(Arrays.stream(returnAttributes), Stream.of(keyAttribute)).toArray(String[]::new);
+    }
+
+    private boolean isRequested(final String attribute) {
+        return Arrays.stream(returnAttributes).anyMatch(requested -> requested.equals("*") || requested.equalsIgnoreCase(attribute));
+    }
+
+    private static String normalize(final String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Batch {
+
+        private final List<Login> logins = new ArrayList<>();
+
+        /**
+         * Released once the batch holds as many logins as allowed.
+         */
+        private final CountDownLatch full = new CountDownLatch(1);
+    }
+
+    private record Login(User user, long enqueued, CompletableFuture<String> dn) {
+        Login(User user, long enqueued) {
+            this(user, enqueued, new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import org.ldaptive.LdapException;
+import org.ldaptive.auth.DnResolver;
+import org.ldaptive.auth.User;
+
+/**
+ * Caches the DN resolved for each username, so that authenticating a user whose credentials are not cached only costs a
+ * bind. DNs are stable, hence this cache usually lives much longer than the credentials one.
+ *
+ * @author GraviteeSource Team
+ */
+public class CachingDnResolver implements DnResolver {
+
+    private final DnResolver delegate;
+
+    /**
+     * Resolved DNs, keyed by username.
+     */
+    private final Cache<String, String> dns;
+
+    /**
+     * Creates a new caching DN resolver.
+     *
+     * @param delegate   resolving the DNs missing from the cache
+     * @param size       number of DNs to cache
+     * @param timeToLive that DNs should stay in the cache
+     */
+    public CachingDnResolver(final DnResolver delegate, final int size, final Duration timeToLive) {
+        this.delegate = delegate;
+        this.dns = Caffeine.newBuilder().maximumSize(size).expireAfterWrite(timeToLive).executor(Runnable::run).build();
+    }
+
+    @Override
+    public String resolve(final User user) throws LdapException {
+        if (user == null || user.getIdentifier() == null) {
+            return delegate.resolve(user);
+        }
+
+        String dn = dns.getIfPresent(user.getIdentifier());
+        if (dn == null) {
+            dn = delegate.resolve(user);
+            if (dn != null && !dn.isEmpty()) {
+                dns.put(user.getIdentifier(), dn);
+            }
+        }
+        return dn;
+    }
+
+    /**
+     * Removes the DN of a user, for instance when it could not be bound.
+     */
+    public void invalidate(final String username) {
+        dns.invalidate(username);
+    }
+
+    /**
+     * Removes all data from this cache.
+     */
+    public void clear() {
+        dns.invalidateAll();
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ReturnAttributes;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+import org.ldaptive.SingleConnectionFactory;
+import org.ldaptive.auth.DnResolver;
+import org.ldaptive.auth.User;
+import org.ldaptive.control.util.PagedResultsClient;
+import org.ldaptive.handler.LdapEntryHandler;
+import org.ldaptive.transcode.GeneralizedTimeValueTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local copy of the user entries of the directory, so that logins resolve the user DN and attributes from memory and
+ * only send their bind to the LDAP server.
+ * <p>
+ * The users matched by the user search filter are loaded in background with a paged search, on a dedicated connection
+ * of the service account so that authentications keep their pools. The mirror is then kept current by searching the
+ * entries whose <code>modifyTimestamp</code> is not older than the most recent one already mirrored, whether they
+ * match the user search filter or not, so that entries no longer matching it are dropped. Deleted entries cannot be
+ * found this way: they are dropped by a periodic full reload, or as soon as a bind reports that their DN no longer
+ * exists.
+ * <p>
+ * Entries are indexed by the attribute the user search filter compares the username to. Usernames missing from the
+ * mirror, such as users created since the last sync, usernames of several entries, and all usernames until the mirror
+ * is loaded, are resolved by the delegate.
+ *
+ * @author GraviteeSource Team
+ */
+public class DirectoryMirror implements DnResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryMirror.class);
+
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    /**
+     * Estimated overhead of an entry and of each value, in bytes.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final int VALUE_OVERHEAD = 16;
+
+    private final GeneralizedTimeValueTranscoder timestamps = new GeneralizedTimeValueTranscoder();
+
+    private final String name;
+
+    private final ConnectionConfig connectionConfig;
+
+    private final String baseDn;
+
+    /**
+     * User search filter, with a wildcard in place of the username.
+     */
+    private final String filter;
+
+    private final String keyAttribute;
+
+    private final String[] returnAttributes;
+
+    private final int pageSize;
+
+    private final Duration syncInterval;
+
+    private final long reloadIntervalNanos;
+
+    private final LdapEntryHandler entryHandler;
+
+    private final DnResolver delegate;
+
+    /**
+     * Mirrored entries, replaced as a whole by each full load.
+     */
+    private volatile Index index = new Index();
+
+    /**
+     * Attribute names, shared by all entries.
+     */
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Most recent <code>modifyTimestamp</code> mirrored, <code>null</code> until the mirror is loaded.
+     */
+    private volatile ZonedDateTime highestTimestamp;
+
+    private volatile long lastSync;
+
+    private volatile long lastReload;
+
+    private ScheduledExecutorService syncer;
+
+    /**
+     * @param name             of the resource, for logs
+     * @param connectionConfig of the service account connection the entries are searched with
+     * @param baseDn           of the user search
+     * @param filter           user search filter, holding an equality with the <code>user</code> parameter
+     * @param returnAttributes user attributes to mirror
+     * @param pageSize         entries of each page of a full load
+     * @param syncInterval     between two searches of the modified entries
+     * @param reloadInterval   between two full loads, <code>0</code> to never reload
+     * @param entryHandler     applied to the entries as they are received, <code>null</code> for none
+     * @param delegate         resolving the usernames missing from the mirror
+     */
+    public DirectoryMirror(
+        final String name,
+        final ConnectionConfig connectionConfig,
+        final String baseDn,
+        final String filter,
+        final String[] returnAttributes,
+        final int pageSize,
+        final Duration syncInterval,
+        final Duration reloadInterval,
+        final LdapEntryHandler entryHandler,
+        final DnResolver delegate
+    ) {
+        this.name = name;
+        this.connectionConfig = connectionConfig;
+        this.baseDn = baseDn;
+        this.keyAttribute = BatchingDnResolver.keyAttribute(filter);
+        if (keyAttribute == null) {
+            throw new IllegalArgumentException("User search filter " + filter + " does not compare an attribute to the username");
+        }
+        this.filter = filter.replace("{user}", "*");
+        this.returnAttributes = returnAttributes;
+        this.pageSize = pageSize;
+        this.syncInterval = syncInterval;
+        this.reloadIntervalNanos = reloadInterval.toNanos();
+        this.entryHandler = entryHandler;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Starts loading the mirror in background, then syncing it periodically.
+     */
+    public void start() {
+        syncer =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ldap-mirror-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        syncer.scheduleWithFixedDelay(this::sync, 0, syncInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+            syncer = null;
+        }
+        index = new Index();
+    }
+
+    @Override
+    public String resolve(final User user) throws LdapException {
+        if (user == null || user.getIdentifier() == null || user.getIdentifier().isEmpty()) {
+            return null;
+        }
+        MirroredEntry mirrored = index.get(normalize(user.getIdentifier()));
+        if (mirrored == null) {
+            return delegate.resolve(user);
+        }
+        if (user.getContext() instanceof LoginContext loginContext) {
+            loginContext.setEntry(mirrored.toLdapEntry());
+        }
+        return mirrored.dn();
+    }
+
+    /**
+     * Drops the entry of a user, whose DN turned out not to exist anymore.
+     */
+    public void invalidate(final String username) {
+        index.removeUsername(normalize(username));
+    }
+
+    /**
+     * @return <code>true</code> once the entries are loaded
+     */
+    public boolean isLoaded() {
+        return highestTimestamp != null;
+    }
+
+    /**
+     * @return the number of mirrored entries
+     */
+    public int size() {
+        return index.byDn.size();
+    }
+
+    /**
+     * @return the estimated memory used by the mirrored entries, in bytes
+     */
+    public long bytes() {
+        return index.bytes.get();
+    }
+
+    /**
+     * @return the time elapsed since the mirror was last synced, <code>null</code> until it is loaded
+     */
+    public Duration lag() {
+        return isLoaded() ? Duration.ofNanos(System.nanoTime() - lastSync) : null;
+    }
+
+    private void sync() {
+        long start = System.nanoTime();
+        SingleConnectionFactory factory = new SingleConnectionFactory(connectionConfig);
+        try {
+            factory.initialize();
+            PagedResultsClient client = new PagedResultsClient(factory, pageSize);
+            if (!isLoaded() || (reloadIntervalNanos > 0 && start - lastReload >= reloadIntervalNanos)) {
+                reload(client);
+                lastReload = start;
+            } else {
+                update(client);
+            }
+            lastSync = start;
+        } catch (LdapException | RuntimeException e) {
+            logger.warn("Unable to sync the users of LDAP resource [{}]", name, e);
+        } finally {
+            factory.close();
+        }
+    }
+
+    /**
+     * Loads all the entries into a new index, so that deleted entries are dropped.
+     */
+    private void reload(final PagedResultsClient client) throws LdapException {
+        Index loaded = new Index();
+        ZonedDateTime highest = search(client, filter, requestedAttributes(), entry -> mirror(loaded, entry));
+        index = loaded;
+        highestTimestamp = highest != null ? highest : ZonedDateTime.now();
+        logger.info("Mirrored {} users of LDAP resource [{}]", loaded.byDn.size(), name);
+    }
+
+    /**
+     * Searches the entries modified since the last sync, the most recent ones being searched again as other entries may
+     * have been modified within the same second. The DNs of those still matching the user search filter are searched
+     * next, the other entries being dropped.
+     */
+    private void update(final PagedResultsClient client) throws LdapException {
+        String modified = "(" + MODIFY_TIMESTAMP + ">=" + timestamps.encodeStringValue(highestTimestamp) + ")";
+        List<LdapEntry> found = new ArrayList<>();
+        ZonedDateTime highest = search(client, modified, requestedAttributes(), found::add);
+        if (found.isEmpty()) {
+            return;
+        }
+
+        Set<String> matching = new HashSet<>();
+        search(
+            client,
+            "(&" + parenthesized(filter) + modified + ")",
+            ReturnAttributes.NONE.value(),
+            entry -> matching.add(normalize(entry.getDn()))
+        );
+        Index current = index;
+        for (LdapEntry entry : found) {
+            if (matching.contains(normalize(entry.getDn()))) {
+                mirror(current, entry);
+            } else {
+                current.remove(normalize(entry.getDn()));
+            }
+        }
+        if (highest != null && highest.isAfter(highestTimestamp)) {
+            highestTimestamp = highest;
+        }
+    }
+
+    /**
+     * @return the most recent <code>modifyTimestamp</code> of the entries found
+     */
+    private ZonedDateTime search(
+        final PagedResultsClient client,
+        final String searchFilter,
+        final String[] attributes,
+        final Consumer<LdapEntry> consumer
+    ) throws LdapException {
+        SearchRequest request = SearchRequest
+            .builder()
+            .dn(baseDn)
+            .filter(searchFilter)
+            .scope(SearchScope.SUBTREE)
+            .returnAttributes(attributes)
+            .build();
+        ZonedDateTime highest = null;
+        SearchResponse response = client.execute(request);
+        while (true) {
+            for (LdapEntry entry : response.getEntries()) {
+                LdapAttribute timestamp = entry.getAttribute(MODIFY_TIMESTAMP);
+                if (timestamp != null) {
+                    ZonedDateTime modified = timestamps.decodeStringValue(timestamp.getStringValue());
+                    if (highest == null || modified.isAfter(highest)) {
+                        highest = modified;
+                    }
+                }
+                consumer.accept(entryHandler != null ? entryHandler.apply(entry) : entry);
+            }
+            if (!client.hasMore(response)) {
+                return highest;
+            }
+            response = client.execute(request, response);
+        }
+    }
+
+    private void mirror(final Index mirrorIndex, final LdapEntry entry) {
+        LdapAttribute key = entry.getAttribute(keyAttribute);
+        if (key == null) {
+            mirrorIndex.remove(normalize(entry.getDn()));
+            return;
+        }
+        List<String> attributeNames = new ArrayList<>();
+        List<byte[][]> attributeValues = new ArrayList<>();
+        for (LdapAttribute attribute : entry.getAttributes()) {
+            if (isKept(attribute.getName())) {
+                attributeNames.add(names.computeIfAbsent(attribute.getName(), n -> n));
+                attributeValues.add(attribute.getBinaryValues().toArray(new byte[0][]));
+            }
+        }
+        MirroredEntry mirrored = new MirroredEntry(
+            entry.getDn(),
+            key.getStringValues().stream().map(DirectoryMirror::normalize).distinct().toArray(String[]::new),
+            attributeNames.toArray(new String[0]),
+            attributeValues.toArray(new byte[0][][])
+        );
+        mirrorIndex.add(normalize(entry.getDn()), mirrored);
+    }
+
+    private String[] requestedAttributes() {
+        if (isRequested(keyAttribute)) {
+            return Stream.concat(Arrays.stream(returnAttributes), Stream.of(MODIFY_TIMESTAMP)).toArray(String[]::new);
+        }
+        return Stream.concat(Arrays.stream(returnAttributes), Stream.of(keyAttribute, MODIFY_TIMESTAMP)).toArray(String[]::new);
+    }
+
+    /**
+     * @return <code>true</code> if the attribute was requested as a user attribute, and not only to maintain the mirror
+     */
+    private boolean isKept(final String attribute) {
+        if (attribute.equalsIgnoreCase(MODIFY_TIMESTAMP)) {
+            return Arrays.stream(returnAttributes).anyMatch(MODIFY_TIMESTAMP::equalsIgnoreCase);
+        }
+        return isRequested(attribute);
+    }
+
+    private boolean isRequested(final String attribute) {
+        return Arrays.stream(returnAttributes).anyMatch(requested -> requested.equals("*") || requested.equalsIgnoreCase(attribute));
+    }
+
+    private static String parenthesized(final String filter) {
+        return filter.startsWith("(") ? filter : "(" + filter + ")";
+    }
+
+    private static String normalize(final String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Mirrored entries, keyed by lower case DN and indexed by lower case username. Updated by the sync thread, and by the
+     * workers dropping entries whose DN no longer exists.
+     */
+    private static final class Index {
+
+        private final Map<String, MirroredEntry> byDn = new ConcurrentHashMap<>();
+
+        /**
+         * DNs of the entries of each username, a username of several entries being ambiguous.
+         */
+        private final Map<String, Set<String>> dnsByUsername = new ConcurrentHashMap<>();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * @return the entry of the username, <code>null</code> if there is none or more than one
+         */
+        MirroredEntry get(final String username) {
+            Set<String> dns = dnsByUsername.get(username);
+            if (dns == null || dns.size() != 1) {
+                return null;
+            }
+            return byDn.get(dns.iterator().next());
+        }
+
+        /**
+         * Adds or replaces an entry, the usernames it no longer holds being dropped.
+         */
+        synchronized void add(final String dn, final MirroredEntry entry) {
+            MirroredEntry previous = byDn.put(dn, entry);
+            if (previous != null) {
+                unindex(dn, previous);
+            }
+            for (String username : entry.usernames()) {
+                dnsByUsername.computeIfAbsent(username, u -> ConcurrentHashMap.newKeySet()).add(dn);
+            }
+            bytes.addAndGet(entry.size() - (previous != null ? previous.size() : 0));
+        }
+
+        synchronized void remove(final String dn) {
+            MirroredEntry removed = byDn.remove(dn);
+            if (removed != null) {
+                unindex(dn, removed);
+                bytes.addAndGet(-removed.size());
+            }
+        }
+
+        synchronized void removeUsername(final String username) {
+            Set<String> dns = dnsByUsername.get(username);
+            if (dns != null) {
+                List.copyOf(dns).forEach(this::remove);
+            }
+        }
+
+        private void unindex(final String dn, final MirroredEntry entry) {
+            for (String username : entry.usernames()) {
+                dnsByUsername.computeIfPresent(
+                    username,
+                    (u, dns) -> {
+                        dns.remove(dn);
+                        return dns.isEmpty() ? null : dns;
+                    }
+                );
+            }
+        }
+    }
+
+    /**
+     * Mirrored entry, holding its lower case usernames and the raw values of its attributes.
+     */
+    private record MirroredEntry(String dn, String[] usernames, String[] names, byte[][][] values) {
+        LdapEntry toLdapEntry() {
+            LdapEntry entry = new LdapEntry();
+            entry.setDn(dn);
+            for (int i = 0; i < names.length; i++) {
+                entry.addAttributes(new LdapAttribute(names[i], values[i]));
+            }
+            return entry;
+        }
+
+        long size() {
+            long size = ENTRY_OVERHEAD + 2L * dn.length();
+            for (String username : usernames) {
+                size += VALUE_OVERHEAD + 2L * username.length();
+            }
+            for (byte[][] attributeValues : values) {
+                for (byte[] value : attributeValues) {
+                    size += VALUE_OVERHEAD + value.length;
+                }
+            }
+            return size;
+        }
+    }
+}
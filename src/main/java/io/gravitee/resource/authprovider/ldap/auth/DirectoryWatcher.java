@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
+import org.ldaptive.ReturnAttributes;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+import org.ldaptive.transcode.GeneralizedTimeValueTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the user entries modified in the directory, such as a password reset, a disabled account or changed
+ * attributes, by periodically searching the entries under the base DN whose <code>modifyTimestamp</code> is not older
+ * than the most recent one already seen. Entries are searched whatever they hold, so that an entry modified to no
+ * longer match the user search filter is reported as well.
+ * <p>
+ * Deleted entries cannot be found this way: each search is followed by a check that the next {@link #EXISTENCE_CHECKS}
+ * watched DNs still exist, going through all of them in turn. A DN that no longer exists, the entry being deleted or
+ * moved, is reported.
+ * <p>
+ * Timestamps are the ones of the directory, so that the clock of the gateway does not matter. When the watcher
+ * starts, the entries modified since a margin for the clock skew are searched without being reported, to find the most
+ * recent timestamp. Entries seen at the most recent timestamp are remembered, so that the next search, which finds them
+ * again, does not report them twice.
+ *
+ * @author GraviteeSource Team
+ */
+public class DirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    /**
+     * Tolerated difference between the clocks of the gateway and of the directory.
+     */
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    /**
+     * Watched DNs checked after each search.
+     */
+    static final int EXISTENCE_CHECKS = 64;
+
+    private final GeneralizedTimeValueTranscoder timestamps = new GeneralizedTimeValueTranscoder();
+
+    private final String name;
+
+    private final ConnectionFactory factory;
+
+    private final String baseDn;
+
+    private final Supplier<Collection<String>> watched;
+
+    private final Duration interval;
+
+    private final Consumer<String> onChange;
+
+    /**
+     * Most recent <code>modifyTimestamp</code> seen. Only accessed by the watcher thread.
+     */
+    private ZonedDateTime since;
+
+    /**
+     * DNs of the entries modified at {@link #since}, lower case.
+     */
+    private Set<String> seenSince = new HashSet<>();
+
+    /**
+     * Watched DNs not checked yet in the current round. Only accessed by the watcher thread.
+     */
+    private final Deque<String> unchecked = new ArrayDeque<>();
+
+    private ScheduledExecutorService watcher;
+
+    /**
+     * @param name     of the resource, for logs
+     * @param factory  connections of the service account
+     * @param baseDn   of the entries to watch
+     * @param watched  DNs whose deletion must be reported
+     * @param interval between two searches
+     * @param onChange invoked with the DN of each modified entry
+     */
+    public DirectoryWatcher(
+        final String name,
+        final ConnectionFactory factory,
+        final String baseDn,
+        final Supplier<Collection<String>> watched,
+        final Duration interval,
+        final Consumer<String> onChange
+    ) {
+        this.name = name;
+        this.factory = factory;
+        this.baseDn = baseDn;
+        this.watched = watched;
+        this.interval = interval;
+        this.onChange = onChange;
+    }
+
+    public void start() {
+        since = ZonedDateTime.now(ZoneOffset.UTC).minus(CLOCK_SKEW);
+        // entries modified before the start are not reported
+        poll(dn -> {});
+        watcher =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ldap-watch-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        watcher.scheduleWithFixedDelay(
+            () -> {
+                poll(onChange);
+                checkExistence(onChange);
+            },
+            interval.toMillis(),
+            interval.toMillis(),
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    public void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    private void poll(Consumer<String> listener) {
+        try {
+            SearchResponse response = new SearchOperation(factory)
+                .execute(
+                    SearchRequest
+                        .builder()
+                        .dn(baseDn)
+                        .filter("(" + MODIFY_TIMESTAMP + ">=" + timestamps.encodeStringValue(since) + ")")
+                        .scope(SearchScope.SUBTREE)
+                        .returnAttributes(MODIFY_TIMESTAMP)
+                        .build()
+                );
+
+            ZonedDateTime highest = since;
+            Set<String> seenHighest = new HashSet<>(seenSince);
+            for (LdapEntry entry : response.getEntries()) {
+                LdapAttribute timestamp = entry.getAttribute(MODIFY_TIMESTAMP);
+                if (timestamp == null) {
+                    continue;
+                }
+                String dn = entry.getDn().toLowerCase(Locale.ROOT);
+                ZonedDateTime modified = timestamps.decodeStringValue(timestamp.getStringValue());
+                if (!modified.isAfter(since) && seenSince.contains(dn)) {
+                    // already reported by the previous search
+                    continue;
+                }
+                listener.accept(entry.getDn());
+                if (modified.isAfter(highest)) {
+                    highest = modified;
+                    seenHighest = new HashSet<>();
+                }
+                if (modified.isEqual(highest)) {
+                    seenHighest.add(dn);
+                }
+            }
+            since = highest;
+            seenSince = seenHighest;
+        } catch (LdapException | RuntimeException e) {
+            logger.warn("Unable to search the users modified in LDAP resource [{}]", name, e);
+        }
+    }
+
+    /**
+     * Checks that the next watched DNs still exist, starting a new round once all of them are checked.
+     */
+    private void checkExistence(Consumer<String> listener) {
+        if (unchecked.isEmpty()) {
+            unchecked.addAll(watched.get());
+        }
+        for (int i = 0; i < EXISTENCE_CHECKS && !unchecked.isEmpty(); i++) {
+            String dn = unchecked.poll();
+            try {
+                SearchResponse response = new SearchOperation(factory)
+                    .execute(
+                        SearchRequest
+                            .builder()
+                            .dn(dn)
+                            .filter("(objectClass=*)")
+                            .scope(SearchScope.OBJECT)
+                            .returnAttributes(ReturnAttributes.NONE.value())
+                            .build()
+                    );
+                if (response.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                    listener.accept(dn);
+                }
+            } catch (LdapException e) {
+                if (e.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                    listener.accept(dn);
+                } else {
+                    logger.warn("Unable to check that user [{}] of LDAP resource [{}] still exists", dn, name, e);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Unable to check that user [{}] of LDAP resource [{}] still exists", dn, name, e);
+                return;
+            }
+        }
+    }
+}
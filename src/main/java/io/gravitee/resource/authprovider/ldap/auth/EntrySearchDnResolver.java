@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.FilterTemplate;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+import org.ldaptive.auth.DnResolver;
+import org.ldaptive.auth.User;
+import org.ldaptive.handler.LdapEntryHandler;
+
+/**
+ * Searches the user with the service account like {@link org.ldaptive.auth.SearchDnResolver}, also requesting the user
+ * attributes. The entry found is kept in the {@link LoginContext} of the user so that it does not have to be read again
+ * once the user is bound.
+ *
+ * @author GraviteeSource Team
+ */
+public class EntrySearchDnResolver implements DnResolver {
+
+    private final ConnectionFactory factory;
+
+    private final String baseDn;
+
+    /**
+     * User search filter, the username being the <code>user</code> parameter.
+     */
+    private final String filter;
+
+    private final String[] returnAttributes;
+
+    private LdapEntryHandler[] entryHandlers = new LdapEntryHandler[0];
+
+    public EntrySearchDnResolver(
+        final ConnectionFactory factory,
+        final String baseDn,
+        final String filter,
+        final String... returnAttributes
+    ) {
+        this.factory = factory;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.returnAttributes = returnAttributes;
+    }
+
+    /**
+     * @param handlers applied to the user entry as it is received
+     */
+    public void setEntryHandlers(final LdapEntryHandler... handlers) {
+        this.entryHandlers = handlers;
+    }
+
+    @Override
+    public String resolve(final User user) throws LdapException {
+        if (user == null || user.getIdentifier() == null || user.getIdentifier().isEmpty()) {
+            return null;
+        }
+
+        FilterTemplate filterTemplate = new FilterTemplate(filter);
+        filterTemplate.setParameter("user", user.getIdentifier());
+        SearchOperation operation = new SearchOperation(factory);
+        operation.setEntryHandlers(entryHandlers);
+        SearchResponse response = operation.execute(
+            SearchRequest
+                .builder()
+                .dn(baseDn)
+                .filter(filterTemplate.format())
+                .scope(SearchScope.SUBTREE)
+                .returnAttributes(returnAttributes)
+                // a second entry is enough to reject an ambiguous username
+                .sizeLimit(2)
+                .build()
+        );
+
+        if (response.entrySize() == 0) {
+            return null;
+        }
+        if (response.entrySize() > 1) {
+            throw new LdapException("Found more than (1) DN for: " + user);
+        }
+
+        LdapEntry entry = response.getEntry();
+        if (user.getContext() instanceof LoginContext loginContext) {
+            loginContext.setEntry(entry);
+        }
+        return entry.getDn();
+    }
+}
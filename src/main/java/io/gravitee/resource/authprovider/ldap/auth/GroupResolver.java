@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.gravitee.resource.authprovider.ldap.configuration.GroupResolution;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.FilterTemplate;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ReturnAttributes;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResponse;
+import org.ldaptive.SearchScope;
+
+/**
+ * Resolves the DNs of the groups an authenticated user belongs to.
+ * <p>
+ * Groups are found either in the <code>memberOf</code> attribute of the user entry, or by searching the groups having
+ * the user DN as member. Nested groups are expanded by searching in turn the groups having each group as member, up to
+ * a maximum depth, cycles being ignored.
+ * <p>
+ * The direct groups of the user are searched on each authentication, as authentications are themselves cached. The
+ * expansion of nested groups goes through two caches with their own time to live:
+ * <ul>
+ *     <li>memberships: the groups each group is a direct member of, so that a group is searched once per time to
+ *     live whatever the number of users belonging to it</li>
+ *     <li>trees: all the groups each group belongs to, so that the expansion of a group common to many users is not
+ *     walked again on each login</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public class GroupResolver {
+
+    public static final String MEMBER_OF_ATTRIBUTE = "memberOf";
+
+    private final GroupResolution resolution;
+
+    private final ConnectionFactory factory;
+
+    private final String baseDn;
+
+    /**
+     * Group search filter, the member DN being the <code>member</code> parameter.
+     */
+    private final String filter;
+
+    /**
+     * Levels of nested groups expanded above the direct groups of the user.
+     */
+    private final int maxDepth;
+
+    /**
+     * Direct groups of each group, keyed by normalized group DN.
+     */
+    private final Cache<String, List<String>> memberships;
+
+    /**
+     * Groups each group belongs to, directly or not, keyed by normalized group DN.
+     */
+    private final Cache<String, List<String>> trees;
+
+    /**
+     * Creates a new group resolver.
+     *
+     * @param resolution            how groups are resolved, not {@link GroupResolution#NONE}
+     * @param factory               connections used to search groups
+     * @param baseDn                under which groups are searched
+     * @param filter                selecting the groups of a member, the member DN being the <code>member</code> parameter
+     * @param maxDepth              levels of nested groups expanded above the direct groups of the user
+     * @param size                  number of groups to cache
+     * @param membershipsTimeToLive that the direct groups of a group should stay in the cache
+     * @param treesTimeToLive       that all the groups of a group should stay in the cache
+     */
+    public GroupResolver(
+        final GroupResolution resolution,
+        final ConnectionFactory factory,
+        final String baseDn,
+        final String filter,
+        final int maxDepth,
+        final int size,
+        final Duration membershipsTimeToLive,
+        final Duration treesTimeToLive
+    ) {
+        this.resolution = resolution;
+        this.factory = factory;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.maxDepth = maxDepth;
+        this.memberships = Caffeine.newBuilder().maximumSize(size).expireAfterWrite(membershipsTimeToLive).executor(Runnable::run).build();
+        this.trees = Caffeine.newBuilder().maximumSize(size).expireAfterWrite(treesTimeToLive).executor(Runnable::run).build();
+    }
+
+    /**
+     * @param user entry of the authenticated user
+     * @return the DNs of the groups of the user, direct groups first
+     */
+    public List<String> resolve(final LdapEntry user) throws LdapException {
+        Collection<String> groups = switch (resolution) {
+            case MEMBER_OF -> memberOf(user);
+            case MEMBER_SEARCH -> search(user.getDn());
+            case NESTED -> expand(search(user.getDn()));
+            case NONE -> List.of();
+        };
+        return List.copyOf(groups);
+    }
+
+    /**
+     * Removes all data from the caches.
+     */
+    public void clear() {
+        memberships.invalidateAll();
+        trees.invalidateAll();
+    }
+
+    private Collection<String> memberOf(final LdapEntry user) {
+        LdapAttribute memberOf = user.getAttribute(MEMBER_OF_ATTRIBUTE);
+        return memberOf == null ? List.of() : memberOf.getStringValues();
+    }
+
+    private Collection<String> expand(final List<String> directGroups) throws LdapException {
+        Set<String> seen = new HashSet<>();
+        Set<String> groups = new LinkedHashSet<>();
+        for (String group : directGroups) {
+            if (seen.add(normalize(group))) {
+                groups.add(group);
+            }
+        }
+        for (String group : directGroups) {
+            for (String ancestor : tree(group)) {
+                if (seen.add(normalize(ancestor))) {
+                    groups.add(ancestor);
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * @return the groups a group belongs to, breadth first, up to the maximum depth
+     */
+    private List<String> tree(final String group) throws LdapException {
+        String key = normalize(group);
+        List<String> tree = trees.getIfPresent(key);
+        if (tree != null) {
+            return tree;
+        }
+
+        Set<String> seen = new HashSet<>();
+        seen.add(key);
+        List<String> ancestors = new ArrayList<>();
+        List<String> level = List.of(group);
+        for (int depth = 0; depth < maxDepth && !level.isEmpty(); depth++) {
+            List<String> next = new ArrayList<>();
+            for (String member : level) {
+                for (String parent : memberships(member)) {
+                    if (seen.add(normalize(parent))) {
+                        ancestors.add(parent);
+                        next.add(parent);
+                    }
+                }
+            }
+            level = next;
+        }
+        tree = List.copyOf(ancestors);
+        trees.put(key, tree);
+        return tree;
+    }
+
+    /**
+     * @return the groups a group is a direct member of
+     */
+    private List<String> memberships(final String group) throws LdapException {
+        String key = normalize(group);
+        List<String> parents = memberships.getIfPresent(key);
+        if (parents == null) {
+            parents = search(group);
+            memberships.put(key, parents);
+        }
+        return parents;
+    }
+
+    /**
+     * @return the groups having the given DN as direct member
+     */
+    private List<String> search(final String memberDn) throws LdapException {
+        FilterTemplate filterTemplate = new FilterTemplate(filter);
+        filterTemplate.setParameter("member", memberDn);
+        SearchResponse response = new SearchOperation(factory)
+            .execute(
+                SearchRequest
+                    .builder()
+                    .dn(baseDn)
+                    .filter(filterTemplate.format())
+                    .scope(SearchScope.SUBTREE)
+                    // only DNs are needed
+                    .returnAttributes(ReturnAttributes.NONE.value())
+                    .build()
+            );
+        return response.getEntries().stream().map(LdapEntry::getDn).toList();
+    }
+
+    private static String normalize(final String dn) {
+        return dn.toLowerCase(Locale.ROOT);
+    }
+}
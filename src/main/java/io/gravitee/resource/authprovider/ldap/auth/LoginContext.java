@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.ldaptive.LdapEntry;
+
+/**
+ * State of a single authentication, attached to the ldaptive {@link org.ldaptive.auth.User} as its context so that the
+ * steps of the authentication can share what they already fetched from the directory.
+ *
+ * @author GraviteeSource Team
+ */
+@Getter
+@Setter
+public class LoginContext {
+
+    /**
+     * User entry returned along with the DN by the user search, <code>null</code> if the DN was resolved without it.
+     */
+    private LdapEntry entry;
+}
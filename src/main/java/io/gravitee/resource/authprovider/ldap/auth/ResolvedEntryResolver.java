@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.auth.AuthenticationCriteria;
+import org.ldaptive.auth.AuthenticationHandlerResponse;
+import org.ldaptive.auth.EntryResolver;
+
+/**
+ * Returns the user entry already fetched while resolving the user DN, and only reads it from the directory with the
+ * fallback resolver when it is not available, for instance when the DN came from a cache.
+ *
+ * @author GraviteeSource Team
+ */
+public class ResolvedEntryResolver implements EntryResolver {
+
+    private final EntryResolver fallback;
+
+    public ResolvedEntryResolver(final EntryResolver fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public LdapEntry resolve(final AuthenticationCriteria criteria, final AuthenticationHandlerResponse response) throws LdapException {
+        if (
+            criteria.getAuthenticationRequest().getUser().getContext() instanceof LoginContext loginContext &&
+            loginContext.getEntry() != null &&
+            loginContext.getEntry().getDn().equalsIgnoreCase(criteria.getDn())
+        ) {
+            return loginContext.getEntry();
+        }
+        return fallback.resolve(criteria, response);
+    }
+}
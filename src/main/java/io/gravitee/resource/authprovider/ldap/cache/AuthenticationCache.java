@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Cache of successful authentications.
+ * <p>
+ * Reads are lock-free and entries are admitted and evicted with a W-TinyLFU policy, keeping the most frequently used
+ * credentials when the cache is full. Expired entries are removed as part of the regular cache maintenance, entry by
+ * entry, instead of periodically scanning the whole cache.
+ * <p>
+ * Optionally, entries used within a window before their expiry are flagged to be refreshed, and expired entries are
+ * still served during a bounded stale period while they are revalidated.
+ * <p>
+ * Entries are also indexed by user DN, so that all the cached authentications of a user can be evicted as soon as the
+ * directory reports a change of its entry.
+ *
+ * @author GraviteeSource Team
+ */
+public class AuthenticationCache {
+
+    /**
+     * Cache of authentication results, keyed by credentials fingerprint.
+     */
+    private final Cache<Fingerprint, Entry> cache;
+
+    /**
+     * Fingerprints of the cached authentications, keyed by lower case user DN.
+     */
+    private final Map<String, Set<Fingerprint>> fingerprintsByDn = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of cached results, <code>0</code> disables the cache.
+     */
+    private final int size;
+
+    private final long timeToLiveNanos;
+
+    /**
+     * Window before expiry during which an entry should be refreshed.
+     */
+    private final long refreshAheadNanos;
+
+    /**
+     * Period after expiry during which entries can be served while they are refreshed.
+     */
+    private final long staleNanos;
+
+    /**
+     * Creates a new authentication cache, without refresh-ahead nor stale period.
+     *
+     * @param size       number of results to cache
+     * @param timeToLive that results should stay in the cache
+     */
+    public AuthenticationCache(final int size, final Duration timeToLive) {
+        this(size, timeToLive, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * Creates a new authentication cache.
+     *
+     * @param size                 number of results to cache
+     * @param timeToLive           that results should stay in the cache
+     * @param refreshAheadWindow   before expiry during which a used result should be refreshed
+     * @param staleWhileRevalidate after expiry during which a result can still be served while it is refreshed
+     */
+    public AuthenticationCache(
+        final int size,
+        final Duration timeToLive,
+        final Duration refreshAheadWindow,
+        final Duration staleWhileRevalidate
+    ) {
+        this.size = size;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.refreshAheadNanos = Math.min(timeToLiveNanos, refreshAheadWindow.toNanos());
+        this.staleNanos = staleWhileRevalidate.toNanos();
+        this.cache =
+            Caffeine
+                .newBuilder()
+                .maximumSize(size)
+                // each entry is dropped once its own stale period is over, shorter lived entries included
+                .expireAfter(
+                    new Expiry<Fingerprint, Entry>() {
+                        @Override
+                        public long expireAfterCreate(Fingerprint key, Entry entry, long currentTime) {
+                            return Math.max(0, entry.expiryTime() + staleNanos - currentTime);
+                        }
+
+                        @Override
+                        public long expireAfterUpdate(Fingerprint key, Entry entry, long currentTime, long currentDuration) {
+                            return expireAfterCreate(key, entry, currentTime);
+                        }
+
+                        @Override
+                        public long expireAfterRead(Fingerprint key, Entry entry, long currentTime, long currentDuration) {
+                            return currentDuration;
+                        }
+                    }
+                )
+                // maintenance is amortized on the calling threads, no extra thread is needed
+                .executor(Runnable::run)
+                .<Fingerprint, Entry>removalListener((key, entry, cause) -> {
+                    if (key != null && entry != null) {
+                        unindex(key, entry.authentication());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Removes all data from this cache.
+     */
+    public void clear() {
+        cache.invalidateAll();
+        fingerprintsByDn.clear();
+    }
+
+    /**
+     * @return the cached authentication, <code>null</code> if absent or expired
+     */
+    public Authentication get(final Fingerprint key) {
+        Entry entry = getEntry(key);
+        return entry == null || entry.isStale() ? null : entry.authentication();
+    }
+
+    /**
+     * @return the cached entry, possibly stale, <code>null</code> if absent
+     */
+    public Entry getEntry(final Fingerprint key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null || (entry.isStale() && System.nanoTime() - entry.expiryTime() >= staleNanos)) {
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(final Fingerprint key, final Authentication authentication) {
+        put(key, authentication, timeToLiveNanos);
+    }
+
+    /**
+     * Caches an authentication for at most the given time, such as one already cached for a while by another node.
+     */
+    public void put(final Fingerprint key, final Authentication authentication, final Duration timeToLive) {
+        put(key, authentication, Math.min(timeToLive.toNanos(), timeToLiveNanos));
+    }
+
+    private void put(final Fingerprint key, final Authentication authentication, final long ttlNanos) {
+        if (size > 0 && ttlNanos > 0) {
+            long now = System.nanoTime();
+            Fingerprint immutableKey = key.immutable();
+            fingerprintsByDn.compute(
+                dn(authentication),
+                (dn, fingerprints) -> {
+                    Set<Fingerprint> indexed = fingerprints != null ? fingerprints : ConcurrentHashMap.newKeySet();
+                    indexed.add(immutableKey);
+                    return indexed;
+                }
+            );
+            cache.put(immutableKey, new Entry(authentication, now + ttlNanos - refreshAheadNanos, now + ttlNanos));
+        }
+    }
+
+    public void invalidate(final Fingerprint key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Evicts all the cached authentications of a user.
+     *
+     * @param dn of the user
+     * @return the fingerprints of the authentications evicted
+     */
+    public Set<Fingerprint> invalidateDn(final String dn) {
+        Set<Fingerprint> fingerprints = fingerprintsByDn.remove(dn.toLowerCase(Locale.ROOT));
+        if (fingerprints == null) {
+            return Set.of();
+        }
+        cache.invalidateAll(fingerprints);
+        return fingerprints;
+    }
+
+    /**
+     * @return the lower case DNs of the users with cached authentications
+     */
+    public Set<String> dns() {
+        return Set.copyOf(fingerprintsByDn.keySet());
+    }
+
+    /**
+     * Calls the action for each cached entry, possibly stale.
+     */
+    public void forEach(final BiConsumer<Fingerprint, Entry> action) {
+        cache.asMap().forEach(action);
+    }
+
+    /**
+     * Returns the approximate number of items in this cache.
+     *
+     * @return size of this cache
+     */
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Drops a removed entry from the index, unless its key was cached again for the same user meanwhile.
+     */
+    private void unindex(final Fingerprint key, final Authentication authentication) {
+        String dn = dn(authentication);
+        Entry current = cache.getIfPresent(key);
+        if (current != null && dn.equals(dn(current.authentication()))) {
+            return;
+        }
+        fingerprintsByDn.computeIfPresent(
+            dn,
+            (ignored, fingerprints) -> {
+                fingerprints.remove(key);
+                return fingerprints.isEmpty() ? null : fingerprints;
+            }
+        );
+    }
+
+    private static String dn(final Authentication authentication) {
+        return String.valueOf(authentication.getUsername()).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Cached authentication.
+     *
+     * @param authentication auth object
+     * @param refreshTime    {@link System#nanoTime()} from which this entry should be refreshed
+     * @param expiryTime     {@link System#nanoTime()} from which this entry is stale
+     */
+    public record Entry(Authentication authentication, long refreshTime, long expiryTime) {
+        /**
+         * @return <code>true</code> if this entry is within its refresh-ahead window or stale, and should be refreshed
+         */
+        public boolean needsRefresh() {
+            return System.nanoTime() - refreshTime >= 0;
+        }
+
+        /**
+         * @return <code>true</code> if this entry outlived its time to live
+         */
+        public boolean isStale() {
+            return System.nanoTime() - expiryTime >= 0;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Store of successful authentications shared by the gateway nodes, behind the in-process {@link AuthenticationCache}
+ * which acts as its near cache.
+ * <p>
+ * Only credential fingerprints are stored, never credentials. Calls may go over the network: they are made from the
+ * authentication workers, never from the caller thread.
+ * <p>
+ * A store can be provided by the gateway as a component of the deployment context, otherwise the gateway cache manager
+ * is used through {@link CacheManagerAuthenticationStore}.
+ *
+ * @author GraviteeSource Team
+ */
+public interface AuthenticationStore {
+    /**
+     * @return the stored authentication, <code>null</code> if absent or expired
+     */
+    StoredAuthentication get(Fingerprint key);
+
+    void put(Fingerprint key, StoredAuthentication authentication);
+
+    void invalidate(Fingerprint key);
+
+    /**
+     * Authentication as shared between nodes.
+     *
+     * @param username   authenticated DN
+     * @param attributes of the user
+     * @param expiresAt  epoch millis after which this authentication must not be used
+     */
+    record StoredAuthentication(String username, HashMap<String, Object> attributes, long expiresAt) {
+        public StoredAuthentication(String username, Map<String, Object> attributes, long expiresAt) {
+            this(username, attributes == null ? new HashMap<>() : new HashMap<>(attributes), expiresAt);
+        }
+
+        public long remainingMillis() {
+            return expiresAt - System.currentTimeMillis();
+        }
+    }
+}
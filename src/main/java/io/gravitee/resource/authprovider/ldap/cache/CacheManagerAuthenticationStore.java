@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import io.gravitee.node.api.cache.Cache;
+import io.gravitee.node.api.cache.CacheConfiguration;
+import io.gravitee.node.api.cache.CacheManager;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AuthenticationStore} backed by the cache manager of the gateway, distributed across nodes when the gateway runs
+ * a clustered cache.
+ * <p>
+ * Entries only hold JDK types (strings, longs, hash maps and array lists), so that the other nodes and the cache backend
+ * can read them without the classes of this plugin. Each resource gets a cache of its own, so that its size and time to
+ * live apply to its entries only.
+ *
+ * @author GraviteeSource Team
+ */
+public class CacheManagerAuthenticationStore implements AuthenticationStore {
+
+    static final String CACHE_NAME = "gravitee-resource-ldap-authentications";
+
+    private static final String USERNAME = "username";
+
+    private static final String ATTRIBUTES = "attributes";
+
+    private static final String EXPIRES_AT = "expiresAt";
+
+    private final Cache<String, HashMap<String, Object>> cache;
+
+    /**
+     * @param namespace  of the cache of the resource, the same on all nodes
+     * @param maxSize    of the shared cache
+     * @param timeToLive of the shared entries, in milliseconds
+     */
+    public CacheManagerAuthenticationStore(CacheManager cacheManager, String namespace, long maxSize, long timeToLive) {
+        this.cache =
+            cacheManager.getOrCreateCache(
+                CACHE_NAME + "-" + namespace,
+                CacheConfiguration.builder().distributed(true).maxSize(maxSize).timeToLiveInMs(timeToLive).build()
+            );
+    }
+
+    @Override
+    public StoredAuthentication get(Fingerprint key) {
+        StoredAuthentication authentication = fromValue(cache.get(toKey(key)));
+        return authentication == null || authentication.remainingMillis() <= 0 ? null : authentication;
+    }
+
+    @Override
+    public void put(Fingerprint key, StoredAuthentication authentication) {
+        long remaining = authentication.remainingMillis();
+        if (remaining > 0) {
+            cache.put(toKey(key), toValue(authentication), remaining, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void invalidate(Fingerprint key) {
+        cache.evict(toKey(key));
+    }
+
+    private static String toKey(Fingerprint key) {
+        byte[] bytes = new byte[Fingerprint.BYTES];
+        key.writeTo(bytes, 0);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return the authentication as JDK types, attribute values being strings or lists of strings
+     */
+    static HashMap<String, Object> toValue(StoredAuthentication authentication) {
+        HashMap<String, Object> attributes = new HashMap<>();
+        authentication
+            .attributes()
+            .forEach((name, value) -> {
+                if (value instanceof Collection<?> values) {
+                    ArrayList<String> strings = new ArrayList<>(values.size());
+                    values.forEach(element -> strings.add(String.valueOf(element)));
+                    attributes.put(name, strings);
+                } else {
+                    attributes.put(name, String.valueOf(value));
+                }
+            });
+        HashMap<String, Object> value = new HashMap<>();
+        value.put(USERNAME, authentication.username());
+        value.put(ATTRIBUTES, attributes);
+        value.put(EXPIRES_AT, authentication.expiresAt());
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static StoredAuthentication fromValue(Map<String, Object> value) {
+        if (
+            value == null ||
+            !(value.get(USERNAME) instanceof String username) ||
+            !(value.get(ATTRIBUTES) instanceof Map<?, ?> attributes) ||
+            !(value.get(EXPIRES_AT) instanceof Long expiresAt)
+        ) {
+            return null;
+        }
+        return new StoredAuthentication(username, (Map<String, Object>) attributes, expiresAt);
+    }
+}
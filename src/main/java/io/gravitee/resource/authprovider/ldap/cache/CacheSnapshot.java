@@ -0,0 +1,346 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Snapshot of an {@link AuthenticationCache} written to disk on stop and read back on start, so that a restarted
+ * gateway does not send all its active users to LDAP at once.
+ * <p>
+ * The snapshot is encrypted with AES-256-GCM, with a key derived from the configured passphrase using PBKDF2 and a
+ * random salt. Its layout is:
+ * <pre>
+ * header:    magic (4) | version (1) | salt (16) | iv (12)          authenticated, not encrypted
+ * encrypted: settings digest (32) | secret length (4) | secret
+ *            | count (4) | count * [fingerprint (32) | expires at (8) | username | attribute count (4) | names and values]
+ * </pre>
+ * Strings are written as their UTF-8 length (4) followed by their bytes. Attribute values start with a tag (1), followed by
+ * a string, or by the size (4) and the strings of a list. Expiry is written as epoch millis, so that the
+ * remaining time to live of entries is kept across restarts and expired entries are dropped on read.
+ * <p>
+ * The fingerprint secret is part of the snapshot, so that restored entries can be looked up. The digest of the
+ * settings that produced the entries makes sure a snapshot is only restored with the same configuration.
+ * <p>
+ * Snapshots are files of a directory set by the gateway administrator, named by the resource configuration. An existing
+ * file is only deleted or replaced once it is known to be a snapshot encrypted with the same passphrase: its header and
+ * its authentication tag must be valid.
+ *
+ * @author GraviteeSource Team
+ */
+public class CacheSnapshot {
+
+    private static final int MAGIC = 0x474C4443;
+
+    private static final byte VERSION = 2;
+
+    private static final byte STRING_VALUE = 0;
+
+    private static final byte LIST_VALUE = 1;
+
+    private static final int SALT_LENGTH = 16;
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int HEADER_LENGTH = 4 + 1 + SALT_LENGTH + IV_LENGTH;
+
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final int KEY_ITERATIONS = 65_536;
+
+    private final Path path;
+
+    private final String passphrase;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param directory  of the snapshots, set by the gateway administrator
+     * @param fileName   of the snapshot, a bare file name
+     * @param passphrase from which the encryption key is derived
+     * @throws IllegalArgumentException if the file name is a path, absolute or not
+     */
+    public CacheSnapshot(Path directory, String fileName, String passphrase) {
+        this.path = resolve(directory, fileName);
+        this.passphrase = passphrase;
+    }
+
+    /**
+     * @return the file of the directory having this name
+     * @throws IllegalArgumentException if the name is a path rather than a bare file name
+     */
+    static Path resolve(Path directory, String fileName) {
+        Path root = directory.toAbsolutePath().normalize();
+        Path name = Path.of(fileName);
+        if (
+            fileName.isBlank() ||
+            name.isAbsolute() ||
+            name.getNameCount() != 1 ||
+            fileName.contains("/") ||
+            fileName.contains("\\") ||
+            fileName.equals(".") ||
+            fileName.equals("..")
+        ) {
+            throw new IllegalArgumentException("Cache snapshot must be a file name, not a path: " + fileName);
+        }
+        Path resolved = root.resolve(name).normalize();
+        if (!root.equals(resolved.getParent())) {
+            throw new IllegalArgumentException("Cache snapshot must be a file name, not a path: " + fileName);
+        }
+        return resolved;
+    }
+
+    /**
+     * Writes the fresh entries of the cache, replacing any previous snapshot encrypted with the same passphrase.
+     *
+     * @param settings digest of the settings that produced the cached entries
+     * @param secret   of the fingerprints of the cached entries
+     * @return the number of entries written
+     */
+    public int write(byte[] settings, byte[] secret, AuthenticationCache cache) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(plain);
+        out.write(settings);
+        out.writeInt(secret.length);
+        out.write(secret);
+
+        List<Map.Entry<Fingerprint, AuthenticationCache.Entry>> entries = new ArrayList<>();
+        cache.forEach((key, entry) -> {
+            if (!entry.isStale()) {
+                entries.add(Map.entry(key, entry));
+            }
+        });
+        out.writeInt(entries.size());
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        byte[] fingerprint = new byte[Fingerprint.BYTES];
+        for (Map.Entry<Fingerprint, AuthenticationCache.Entry> entry : entries) {
+            entry.getKey().writeTo(fingerprint, 0);
+            out.write(fingerprint);
+            out.writeLong(nowMillis + Duration.ofNanos(entry.getValue().expiryTime() - nowNanos).toMillis());
+            Authentication authentication = entry.getValue().authentication();
+            writeString(out, authentication.getUsername());
+            Map<String, Object> attributes = authentication.getAttributes() == null ? Map.of() : authentication.getAttributes();
+            out.writeInt(attributes.size());
+            for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                writeString(out, attribute.getKey());
+                writeValue(out, attribute.getValue());
+            }
+        }
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(salt);
+        random.nextBytes(iv);
+        header.putInt(MAGIC).put(VERSION).put(salt).put(iv).flip();
+        Cipher cipher = cipher(Cipher.ENCRYPT_MODE, salt, iv, header.duplicate());
+        byte[] encrypted = cipher.doFinal(plain.toByteArray());
+
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            // throws, leaving the file untouched, unless it is a snapshot of ours
+            decrypt();
+        }
+        Path temp = createTempFile();
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_LENGTH + encrypted.length);
+                mapped.put(header).put(encrypted);
+                mapped.force();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Reads the snapshot, which is deleted once decrypted. A file that cannot be decrypted is left untouched.
+     *
+     * @param settings digest of the current settings
+     * @return the snapshot, <code>null</code> if there is none or if it was written with other settings
+     */
+    public Restored read(byte[] settings) throws IOException, GeneralSecurityException {
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+        ByteBuffer plain = decrypt();
+        Files.deleteIfExists(path);
+
+        byte[] snapshotSettings = new byte[settings.length];
+        plain.get(snapshotSettings);
+        if (!MessageDigest.isEqual(settings, snapshotSettings)) {
+            return null;
+        }
+        byte[] secret = new byte[plain.getInt()];
+        plain.get(secret);
+
+        int count = plain.getInt();
+        List<RestoredEntry> entries = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        byte[] fingerprint = new byte[Fingerprint.BYTES];
+        for (int i = 0; i < count; i++) {
+            plain.get(fingerprint);
+            long expiresAt = plain.getLong();
+            Authentication authentication = new Authentication(readString(plain));
+            int attributeCount = plain.getInt();
+            Map<String, Object> attributes = new HashMap<>(attributeCount * 2);
+            for (int j = 0; j < attributeCount; j++) {
+                attributes.put(readString(plain), readValue(plain));
+            }
+            authentication.setAttributes(CompactAttributes.of(attributes));
+            if (expiresAt > now) {
+                entries.add(new RestoredEntry(Fingerprint.of(fingerprint, 0), authentication, Duration.ofMillis(expiresAt - now)));
+            }
+        }
+        return new Restored(secret, entries);
+    }
+
+    /**
+     * @return the decrypted content of the snapshot
+     * @throws IOException              if the file is not a snapshot
+     * @throws GeneralSecurityException if the snapshot was encrypted with another passphrase, or altered
+     */
+    private ByteBuffer decrypt() throws IOException, GeneralSecurityException {
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a cache snapshot: " + path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < HEADER_LENGTH || mapped.getInt(0) != MAGIC || mapped.get(4) != VERSION) {
+                throw new IOException("Not a cache snapshot: " + path);
+            }
+            byte[] salt = new byte[SALT_LENGTH];
+            byte[] iv = new byte[IV_LENGTH];
+            mapped.get(5, salt).get(5 + SALT_LENGTH, iv);
+            Cipher cipher = cipher(Cipher.DECRYPT_MODE, salt, iv, mapped.duplicate().limit(HEADER_LENGTH));
+            ByteBuffer encrypted = mapped.position(HEADER_LENGTH);
+            ByteBuffer plain = ByteBuffer.allocate(cipher.getOutputSize(encrypted.remaining()));
+            // verifies the authentication tag
+            cipher.doFinal(encrypted, plain);
+            return plain.flip();
+        }
+    }
+
+    private Cipher cipher(int mode, byte[] salt, byte[] iv, ByteBuffer header) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(passphrase.toCharArray(), salt, KEY_ITERATIONS, 256);
+        byte[] key;
+        try {
+            key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+        } finally {
+            keySpec.clearPassword();
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        Arrays.fill(key, (byte) 0);
+        cipher.updateAAD(header);
+        return cipher;
+    }
+
+    private Path createTempFile() throws IOException {
+        Path directory = path.getParent();
+        Files.createDirectories(directory);
+        String prefix = path.getFileName().toString();
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            // readable by the gateway only
+            return Files.createTempFile(
+                directory,
+                prefix,
+                ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+            );
+        }
+        return Files.createTempFile(directory, prefix, ".tmp");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Collection<?> values) {
+            out.writeByte(LIST_VALUE);
+            out.writeInt(values.size());
+            for (Object element : values) {
+                writeString(out, String.valueOf(element));
+            }
+        } else {
+            out.writeByte(STRING_VALUE);
+            writeString(out, String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        if (buffer.get() == LIST_VALUE) {
+            String[] values = new String[buffer.getInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readString(buffer);
+            }
+            return List.of(values);
+        }
+        return readString(buffer);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param secret  of the fingerprints of the entries
+     * @param entries not expired yet
+     */
+    public record Restored(byte[] secret, List<RestoredEntry> entries) {}
+
+    /**
+     * @param timeToLive remaining time to live of the entry
+     */
+    public record RestoredEntry(Fingerprint key, Authentication authentication, Duration timeToLive) {}
+}
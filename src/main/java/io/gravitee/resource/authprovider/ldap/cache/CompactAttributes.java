@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable map of the attributes of an authenticated user, sized for the authentication cache.
+ * <p>
+ * Attribute names are kept in sorted tables shared by all the users returning the same attributes, and the values of
+ * low cardinality attributes are deduplicated across users, so that common values such as organizational units, group
+ * DNs or the LDAP URL are stored once whatever the number of cached users. Each user only costs an array of references
+ * to its values.
+ * <p>
+ * Whether values are worth deduplicating is learnt per attribute name: the first {@value #SAMPLES} values of an
+ * attribute are interned, and if less than half of them were already known, the attribute is deemed unique per user,
+ * such as a mail or a common name, and its values are no longer interned.
+ * <p>
+ * Values can be kept as the raw bytes received from the LDAP server, decoded only when read: attributes that no
+ * policy reads are never decoded.
+ * <p>
+ * Names and shared values are interned weakly: they are released once no cached user refers to them anymore.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CompactAttributes extends AbstractMap<String, Object> {
+
+    private static final Interner<Names> NAMES = Interners.newWeakInterner();
+
+    private static final Interner<Object> VALUES = Interners.newWeakInterner();
+
+    /**
+     * Values of an attribute interned before deciding whether its values are shared.
+     */
+    static final int SAMPLES = 256;
+
+    /**
+     * Cardinality of the values of each attribute, by name.
+     */
+    private static final Map<String, Cardinality> CARDINALITIES = new ConcurrentHashMap<>();
+
+    private static final CompactAttributes EMPTY = new CompactAttributes(new String[0], new Object[0]);
+
+    /**
+     * Sorted attribute names, shared.
+     */
+    private final String[] names;
+
+    /**
+     * Values, in the order of {@link #names}.
+     */
+    private final Object[] values;
+
+    private CompactAttributes(String[] names, Object[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * @param attributes to copy, without <code>null</code> name nor value
+     * @return an immutable copy of the attributes
+     */
+    public static CompactAttributes of(Map<String, ?> attributes) {
+        return of(attributes, false);
+    }
+
+    /**
+     * @param attributes to copy, byte array values being UTF-8 encoded, without <code>null</code> name nor value
+     * @return an immutable copy of the attributes, byte array values being decoded when read
+     */
+    public static CompactAttributes ofRaw(Map<String, ?> attributes) {
+        return of(attributes, true);
+    }
+
+    private static CompactAttributes of(Map<String, ?> attributes, boolean raw) {
+        if (attributes.isEmpty()) {
+            return EMPTY;
+        }
+        String[] sortedNames = attributes.keySet().toArray(new String[0]);
+        Arrays.sort(sortedNames);
+        for (int i = 0; i < sortedNames.length; i++) {
+            sortedNames[i] = (String) VALUES.intern(sortedNames[i]);
+        }
+        String[] names = NAMES.intern(new Names(sortedNames)).names();
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Object value = attributes.get(names[i]);
+            values[i] = intern(names[i], raw && value instanceof byte[] bytes ? new RawValue(bytes) : value);
+        }
+        return new CompactAttributes(names, values);
+    }
+
+    /**
+     * @return the shared instance of the value if the values of the attribute are shared, the value itself otherwise
+     */
+    private static Object intern(String name, Object value) {
+        Cardinality cardinality = CARDINALITIES.computeIfAbsent(name, n -> new Cardinality());
+        if (cardinality.unique) {
+            return value;
+        }
+        Object interned = VALUES.intern(value);
+        cardinality.sample(interned != value);
+        return interned;
+    }
+
+    // Visible for tests
+    static Object interners() {
+        return new Object[] { NAMES, VALUES, CARDINALITIES };
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < names.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= names.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<>(names[next], value(next));
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+    /**
+     * @return <code>true</code> if both maps share the same table of names
+     */
+    boolean sharesNamesWith(CompactAttributes other) {
+        return names == other.names;
+    }
+
+    private Object value(int index) {
+        Object value = values[index];
+        return value instanceof RawValue raw ? raw.decoded() : value;
+    }
+
+    private int indexOf(Object key) {
+        return key instanceof String name ? Arrays.binarySearch(names, name) : -1;
+    }
+
+    /**
+     * Value as received from the LDAP server, decoded once on first read. Shared by all users having this value.
+     */
+    private static final class RawValue {
+
+        private final byte[] bytes;
+
+        /**
+         * Racy single-check: concurrent readers may both decode, to equal strings.
+         */
+        private String decoded;
+
+        private RawValue(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        String decoded() {
+            String value = decoded;
+            if (value == null) {
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded = value;
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RawValue other && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    /**
+     * Share of the values of an attribute already interned when sampled.
+     */
+    private static final class Cardinality {
+
+        private final AtomicInteger samples = new AtomicInteger();
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        /**
+         * Set once sampled values turned out to be mostly distinct.
+         */
+        private volatile boolean unique;
+
+        void sample(boolean hit) {
+            if (hit) {
+                hits.incrementAndGet();
+            }
+            if (samples.incrementAndGet() == SAMPLES && hits.get() < SAMPLES / 2) {
+                unique = true;
+            }
+        }
+    }
+
+    /**
+     * Sorted table of attribute names, compared by content to be interned.
+     */
+    private record Names(String[] names) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Names other && Arrays.equals(names, other.names);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(names);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(names);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Computes the {@link Fingerprint} of credentials as their HMAC-SHA256 with a secret of the instance, so that
+ * fingerprints cannot be reversed by brute force without the secret.
+ * <p>
+ * Each thread encodes credentials in UTF-8 into its own buffer and hashes them with its own digest, so that
+ * {@link #lookupKey(String, String)} does not allocate: this is the path followed by every authentication, whether the
+ * cache hits or not.
+ *
+ * @author GraviteeSource Team
+ */
+public class CredentialFingerprinter {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final int BLOCK_SIZE = 64;
+
+    private static final int SECRET_SIZE = 32;
+
+    /**
+     * Encoding buffers larger than this are not kept by threads, so that unusually long credentials don't retain memory.
+     */
+    private static final int MAX_RETAINED_BUFFER = 1024;
+
+    private final byte[] secret;
+
+    private final byte[] innerPad = new byte[BLOCK_SIZE];
+
+    private final byte[] outerPad = new byte[BLOCK_SIZE];
+
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Creates a fingerprinter with a random secret.
+     */
+    public CredentialFingerprinter() {
+        this(randomSecret());
+    }
+
+    public CredentialFingerprinter(byte[] secret) {
+        this.secret = secret.clone();
+        byte[] key = secret.length > BLOCK_SIZE ? newDigest().digest(secret) : secret;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i < key.length ? key[i] : 0;
+            innerPad[i] = (byte) (b ^ 0x36);
+            outerPad[i] = (byte) (b ^ 0x5c);
+        }
+    }
+
+    /**
+     * @return a fingerprint of the credentials, that can be kept
+     */
+    public Fingerprint fingerprint(String username, String password) {
+        State current = compute(username, password);
+        return Fingerprint.of(current.digest, 0);
+    }
+
+    /**
+     * @return a fingerprint of the credentials, reused by the calling thread for its next lookup
+     */
+    public Fingerprint lookupKey(String username, String password) {
+        State current = compute(username, password);
+        current.lookupKey.set(current.digest, 0);
+        return current.lookupKey;
+    }
+
+    /**
+     * @return the secret of this fingerprinter
+     */
+    public byte[] secret() {
+        return secret.clone();
+    }
+
+    private State compute(String username, String password) {
+        State current = state.get();
+        int maxLength = 4 + 3 * (username.length() + password.length());
+        byte[] buffer = current.buffer;
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_RETAINED_BUFFER) {
+                current.buffer = buffer;
+            }
+        }
+
+        // username is prefixed with its length, so that the boundary between username and password is unambiguous
+        int usernameEnd = encode(username, buffer, 4);
+        int usernameLength = usernameEnd - 4;
+        buffer[0] = (byte) (usernameLength >>> 24);
+        buffer[1] = (byte) (usernameLength >>> 16);
+        buffer[2] = (byte) (usernameLength >>> 8);
+        buffer[3] = (byte) usernameLength;
+        int length = encode(password, buffer, usernameEnd);
+
+        try {
+            MessageDigest digest = current.messageDigest;
+            digest.update(innerPad);
+            digest.update(buffer, 0, length);
+            digest.digest(current.digest, 0, Fingerprint.BYTES);
+            digest.update(outerPad);
+            digest.update(current.digest, 0, Fingerprint.BYTES);
+            digest.digest(current.digest, 0, Fingerprint.BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unable to fingerprint credentials", e);
+        }
+        return current;
+    }
+
+    /**
+     * Encodes a string in UTF-8, replacing unpaired surrogates with <code>?</code> as {@link String#getBytes} does.
+     *
+     * @return the offset following the encoded bytes
+     */
+    private static int encode(String value, byte[] buffer, int offset) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[offset++] = (byte) (0xC0 | (c >> 6));
+                buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[offset++] = '?';
+                }
+            } else {
+                buffer[offset++] = (byte) (0xE0 | (c >> 12));
+                buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return offset;
+    }
+
+    private static byte[] randomSecret() {
+        byte[] secret = new byte[SECRET_SIZE];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Per-thread buffers and digest.
+     */
+    private static class State {
+
+        private final MessageDigest messageDigest = newDigest();
+
+        private final byte[] digest = new byte[Fingerprint.BYTES];
+
+        private final Fingerprint lookupKey = new Fingerprint(true);
+
+        private byte[] buffer = new byte[128];
+    }
+}
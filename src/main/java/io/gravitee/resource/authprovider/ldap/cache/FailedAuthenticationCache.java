@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+
+/**
+ * Short-lived cache of the credentials rejected by the LDAP server, so that clients retrying a wrong password are
+ * answered without a new LDAP round trip. Only the credentials fingerprint is stored.
+ *
+ * @author GraviteeSource Team
+ */
+public class FailedAuthenticationCache {
+
+    /**
+     * Fingerprints of the rejected credentials.
+     */
+    private final Cache<Fingerprint, Boolean> cache;
+
+    /**
+     * Maximum number of cached fingerprints, <code>0</code> disables the cache.
+     */
+    private final int size;
+
+    /**
+     * Creates a new failed authentication cache.
+     *
+     * @param size       number of rejected credentials to cache
+     * @param timeToLive that rejected credentials should stay in the cache
+     */
+    public FailedAuthenticationCache(final int size, final Duration timeToLive) {
+        this.size = size;
+        this.cache = Caffeine.newBuilder().maximumSize(size).expireAfterWrite(timeToLive).executor(Runnable::run).build();
+    }
+
+    public boolean contains(final Fingerprint key) {
+        return size > 0 && cache.getIfPresent(key) != null;
+    }
+
+    public void put(final Fingerprint key) {
+        if (size > 0) {
+            cache.put(key.immutable(), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes all data from this cache.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+}
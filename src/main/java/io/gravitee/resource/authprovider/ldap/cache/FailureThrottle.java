@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Counts consecutive failed authentications per username and, once a threshold is reached, rejects further attempts
+ * locally during an exponentially growing backoff period.
+ * <p>
+ * A successful authentication resets the counter of the user.
+ *
+ * @author GraviteeSource Team
+ */
+public class FailureThrottle {
+
+    /**
+     * Maximum number of tracked usernames.
+     */
+    private static final int MAX_TRACKED_USERS = 10_000;
+
+    /**
+     * Consecutive failures per username.
+     */
+    private final Cache<String, Failures> failures;
+
+    /**
+     * Number of consecutive failures before attempts are throttled, <code>0</code> disables throttling.
+     */
+    private final int threshold;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    /**
+     * Creates a new failure throttle.
+     *
+     * @param threshold      number of consecutive failures before throttling, <code>0</code> to disable
+     * @param initialBackoff backoff applied once the threshold is reached, doubled on every new failure
+     * @param maxBackoff     maximum backoff
+     */
+    public FailureThrottle(final int threshold, final Duration initialBackoff, final Duration maxBackoff) {
+        this.threshold = threshold;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, maxBackoff.toNanos());
+        this.failures =
+            Caffeine
+                .newBuilder()
+                .maximumSize(MAX_TRACKED_USERS)
+                // failures older than the maximum backoff are forgotten, never before the user is released
+                .expireAfter(
+                    new Expiry<String, Failures>() {
+                        @Override
+                        public long expireAfterCreate(String username, Failures userFailures, long currentTime) {
+                            return Math.max(maxBackoffNanos, userFailures.blockedUntil - currentTime);
+                        }
+
+                        @Override
+                        public long expireAfterUpdate(String username, Failures userFailures, long currentTime, long currentDuration) {
+                            return expireAfterCreate(username, userFailures, currentTime);
+                        }
+
+                        @Override
+                        public long expireAfterRead(String username, Failures userFailures, long currentTime, long currentDuration) {
+                            return currentDuration;
+                        }
+                    }
+                )
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * @return <code>true</code> if attempts of this user must be rejected without contacting the LDAP server
+     */
+    public boolean isThrottled(final String username) {
+        if (threshold <= 0) {
+            return false;
+        }
+        Failures userFailures = failures.getIfPresent(normalize(username));
+        return userFailures != null && userFailures.blockedUntil - System.nanoTime() > 0;
+    }
+
+    public void failure(final String username) {
+        if (threshold > 0) {
+            failures
+                .asMap()
+                .compute(
+                    normalize(username),
+                    (user, previous) -> {
+                        int count = previous == null ? 1 : previous.count + 1;
+                        return new Failures(count, System.nanoTime() + backoff(count));
+                    }
+                );
+        }
+    }
+
+    public void success(final String username) {
+        if (threshold > 0) {
+            failures.invalidate(normalize(username));
+        }
+    }
+
+    /**
+     * Removes all tracked failures.
+     */
+    public void clear() {
+        failures.invalidateAll();
+    }
+
+    private long backoff(int count) {
+        if (count < threshold) {
+            return 0;
+        }
+        long backoff = initialBackoffNanos;
+        for (int i = threshold; i < count && backoff < maxBackoffNanos; i++) {
+            backoff <<= 1;
+        }
+        return Math.min(backoff, maxBackoffNanos);
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param count        consecutive failures
+     * @param blockedUntil {@link System#nanoTime()} until which attempts are rejected
+     */
+    private record Failures(int count, long blockedUntil) {}
+}
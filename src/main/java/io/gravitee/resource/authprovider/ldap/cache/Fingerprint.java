@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+/**
+ * 256 bits fingerprint of credentials, used as cache key instead of the credentials themselves.
+ * <p>
+ * Fingerprints returned by {@link CredentialFingerprinter#lookupKey(String, String)} are reused by the calling thread
+ * for its next lookup: they can be used to read a cache, but must be turned {@link #immutable()} to be kept.
+ *
+ * @author GraviteeSource Team
+ */
+public final class Fingerprint {
+
+    public static final int BYTES = 32;
+
+    private final boolean reused;
+
+    private long w0;
+    private long w1;
+    private long w2;
+    private long w3;
+
+    Fingerprint(boolean reused) {
+        this.reused = reused;
+    }
+
+    /**
+     * Creates a fingerprint from its binary form, as written by {@link #writeTo(byte[], int)}.
+     */
+    public static Fingerprint of(byte[] bytes, int offset) {
+        Fingerprint fingerprint = new Fingerprint(false);
+        fingerprint.set(bytes, offset);
+        return fingerprint;
+    }
+
+    void set(byte[] bytes, int offset) {
+        w0 = readLong(bytes, offset);
+        w1 = readLong(bytes, offset + 8);
+        w2 = readLong(bytes, offset + 16);
+        w3 = readLong(bytes, offset + 24);
+    }
+
+    /**
+     * @return this fingerprint if it is not reused, a copy otherwise
+     */
+    public Fingerprint immutable() {
+        if (!reused) {
+            return this;
+        }
+        Fingerprint copy = new Fingerprint(false);
+        copy.w0 = w0;
+        copy.w1 = w1;
+        copy.w2 = w2;
+        copy.w3 = w3;
+        return copy;
+    }
+
+    /**
+     * Writes the {@value #BYTES} bytes of this fingerprint.
+     */
+    public void writeTo(byte[] bytes, int offset) {
+        writeLong(bytes, offset, w0);
+        writeLong(bytes, offset + 8, w1);
+        writeLong(bytes, offset + 16, w2);
+        writeLong(bytes, offset + 24, w3);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Fingerprint other && w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // bits of a keyed digest are evenly distributed, any of them makes a good hash
+        return Long.hashCode(w0);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
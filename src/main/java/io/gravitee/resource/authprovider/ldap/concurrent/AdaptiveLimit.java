@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Concurrency limit adapted to the observed latency, with additive increase and multiplicative decrease.
+ * <p>
+ * The baseline is the lowest latency observed, slowly drifting up so that it follows a directory whose latency changes
+ * for good. A call slower than the tolerated multiple of the baseline, or failing, means the directory is overloaded:
+ * the limit is cut. Otherwise it grows by one per limit calls, that is about one per round trip of all the calls in
+ * flight.
+ *
+ * @author GraviteeSource Team
+ */
+public class AdaptiveLimit {
+
+    /**
+     * Multiple of the baseline latency above which a call means overload.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Factor applied to the limit on overload.
+     */
+    private static final double BACKOFF = 0.9;
+
+    /**
+     * Weight of a slower call in the baseline.
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final IntConsumer onChange;
+
+    /**
+     * Guarded by <code>this</code>.
+     */
+    private double limit;
+
+    private double baselineNanos;
+
+    private volatile int current;
+
+    /**
+     * Creates a new limit, starting at its maximum.
+     *
+     * @param minLimit lowest limit
+     * @param maxLimit highest limit
+     * @param onChange invoked with the new limit each time it changes
+     */
+    public AdaptiveLimit(final int minLimit, final int maxLimit, final IntConsumer onChange) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.onChange = onChange;
+        this.limit = this.maxLimit;
+        this.current = this.maxLimit;
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param latencyNanos duration of the call
+     * @param dropped      <code>true</code> if the call failed or timed out
+     */
+    public synchronized void sample(final long latencyNanos, final boolean dropped) {
+        if (!dropped) {
+            if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                baselineNanos = latencyNanos;
+            } else {
+                baselineNanos += (latencyNanos - baselineNanos) * BASELINE_DRIFT;
+            }
+        }
+        if (dropped || latencyNanos > baselineNanos * LATENCY_TOLERANCE) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        int updated = (int) limit;
+        if (updated != current) {
+            current = updated;
+            onChange.accept(updated);
+        }
+    }
+
+    public int limit() {
+        return current;
+    }
+}
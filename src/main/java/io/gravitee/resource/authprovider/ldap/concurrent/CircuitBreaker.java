@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops sending calls to a failing dependency, so that they fail fast instead of each waiting for a timeout.
+ * <p>
+ * While closed, the outcomes of the last calls are kept in a sliding window. The breaker opens once the window is full
+ * and its failure rate reaches the threshold, then rejects all calls for the open duration. It is then half-open: a
+ * few probe calls are let through, closing it again if they all succeed, opening it again on the first failure.
+ *
+ * @author GraviteeSource Team
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Percentage of failed calls opening the breaker, <code>0</code> disables the breaker.
+     */
+    private final int failureRateThreshold;
+
+    private final long openDurationNanos;
+
+    private final int halfOpenProbes;
+
+    /**
+     * Outcomes of the last calls while closed, <code>true</code> for a failure. Guarded by <code>this</code>.
+     */
+    private final boolean[] window;
+
+    private int windowIndex;
+
+    private int windowCount;
+
+    private int windowFailures;
+
+    private int probeSuccesses;
+
+    /**
+     * Probe calls let through since the breaker is half-open.
+     */
+    private final AtomicInteger probes = new AtomicInteger();
+
+    private volatile State state = State.CLOSED;
+
+    private volatile long openedAt;
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param failureRateThreshold percentage of failed calls opening the breaker, <code>0</code> to disable
+     * @param windowSize           number of calls the failure rate is computed on
+     * @param openDuration         during which calls are rejected once the breaker is open
+     * @param halfOpenProbes       calls let through to decide whether the breaker closes again
+     */
+    public CircuitBreaker(final int failureRateThreshold, final int windowSize, final Duration openDuration, final int halfOpenProbes) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * @return <code>true</code> if calls are currently rejected, without taking a probe permit
+     */
+    public boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openDurationNanos;
+    }
+
+    /**
+     * Asks for the permission to run a call, whose outcome must then be {@link #record(boolean) recorded}.
+     *
+     * @return <code>false</code> if the call must be rejected
+     */
+    public boolean tryAcquire() {
+        if (failureRateThreshold <= 0 || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (isOpen()) {
+                return false;
+            }
+            halfOpen();
+        }
+        return state == State.CLOSED || probes.getAndIncrement() < halfOpenProbes;
+    }
+
+    /**
+     * Records the outcome of a call allowed by {@link #tryAcquire()}.
+     *
+     * @param failure <code>true</code> if the dependency failed or timed out
+     */
+    public synchronized void record(final boolean failure) {
+        if (failureRateThreshold <= 0) {
+            return;
+        }
+        switch (state) {
+            case CLOSED -> {
+                if (windowCount == window.length && window[windowIndex]) {
+                    windowFailures--;
+                }
+                window[windowIndex] = failure;
+                windowIndex = (windowIndex + 1) % window.length;
+                windowCount = Math.min(windowCount + 1, window.length);
+                if (failure) {
+                    windowFailures++;
+                }
+                if (windowCount == window.length && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                    open();
+                }
+            }
+            case HALF_OPEN -> {
+                if (failure) {
+                    open();
+                } else if (++probeSuccesses >= halfOpenProbes) {
+                    close();
+                }
+            }
+            case OPEN -> {
+                // outcome of a call started before the breaker opened
+            }
+        }
+    }
+
+    public State state() {
+        return state;
+    }
+
+    private synchronized void halfOpen() {
+        if (state == State.OPEN && !isOpen()) {
+            probes.set(0);
+            probeSuccesses = 0;
+            state = State.HALF_OPEN;
+        }
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        state = State.OPEN;
+    }
+
+    private void close() {
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        Arrays.fill(window, false);
+        state = State.CLOSED;
+    }
+}
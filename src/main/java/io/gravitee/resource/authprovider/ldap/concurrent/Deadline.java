@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+/**
+ * Time by which the authentication run by the current thread must complete, counted from its submission so that the
+ * time spent waiting for a worker is part of it. Each step waits at most for the time remaining.
+ *
+ * @author GraviteeSource Team
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private Deadline() {}
+
+    /**
+     * @param deadlineNanos {@link System#nanoTime()} by which the authentication must complete
+     */
+    public static void start(long deadlineNanos) {
+        DEADLINE.set(deadlineNanos);
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} by which the authentication must complete, <code>null</code> when there is
+     * no deadline
+     */
+    public static Long current() {
+        return DEADLINE.get();
+    }
+
+    public static boolean isSet() {
+        return DEADLINE.get() != null;
+    }
+
+    /**
+     * @return the time remaining, {@link Long#MAX_VALUE} when there is no deadline
+     */
+    public static long remainingNanos() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the latencies of the most recent calls.
+ * <p>
+ * Samples are kept in a ring, the percentile being computed again every few samples only, so that recording stays cheap
+ * on the authentication path.
+ *
+ * @author GraviteeSource Team
+ */
+public class LatencyWindow {
+
+    /**
+     * Samples recorded between two computations of the percentile.
+     */
+    private static final int REFRESH_INTERVAL = 16;
+
+    private final int percentile;
+
+    private final int minSamples;
+
+    /**
+     * Guarded by <code>this</code>.
+     */
+    private final long[] samples;
+
+    private int index;
+
+    private int count;
+
+    private int sinceRefresh;
+
+    private volatile long percentileNanos = -1;
+
+    /**
+     * @param size       number of most recent samples kept
+     * @param percentile computed over the samples, from 1 to 100
+     * @param minSamples recorded before the percentile is known
+     */
+    public LatencyWindow(int size, int percentile, int minSamples) {
+        this.samples = new long[Math.max(1, size)];
+        this.percentile = Math.max(1, Math.min(100, percentile));
+        this.minSamples = Math.max(1, Math.min(minSamples, samples.length));
+    }
+
+    public synchronized void record(long latencyNanos) {
+        samples[index] = latencyNanos;
+        index = (index + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        if (count >= minSamples && (++sinceRefresh >= REFRESH_INTERVAL || percentileNanos < 0)) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            percentileNanos = sorted[Math.max(0, (int) Math.ceil(count * percentile / 100.0) - 1)];
+        }
+    }
+
+    /**
+     * @return the percentile of the recent latencies, <code>-1</code> until enough samples are recorded
+     */
+    public long percentileNanos() {
+        return percentileNanos;
+    }
+}
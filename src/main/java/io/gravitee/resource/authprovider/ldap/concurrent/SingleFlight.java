@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls sharing the same key: while a call is in flight, callers asking for the same key are given
+ * the pending result instead of starting their own call.
+ *
+ * @param <K> type of the key identifying a call
+ * @param <V> type of the call result
+ * @author GraviteeSource Team
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Calls currently in flight, removed as soon as they complete.
+     */
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call for the given key unless one is already in flight, in which case the pending result is returned.
+     *
+     * @param key       identifying the call
+     * @param call      to run if no call is in flight for this key
+     * @param coalesced invoked when the caller joins a call already in flight
+     * @return the result of the call
+     */
+    public CompletableFuture<V> execute(final K key, final Supplier<CompletableFuture<V>> call, final Runnable coalesced) {
+        final CompletableFuture<V> promise = new CompletableFuture<>();
+        final CompletableFuture<V> pending = inFlight.putIfAbsent(key, promise);
+        if (pending != null) {
+            coalesced.run();
+            return pending;
+        }
+
+        try {
+            call
+                .get()
+                .whenComplete((result, throwable) -> {
+                    // remove before completing so that callers arriving afterward start a fresh call
+                    inFlight.remove(key, promise);
+                    if (throwable != null) {
+                        promise.completeExceptionally(throwable);
+                    } else {
+                        promise.complete(result);
+                    }
+                });
+        } catch (RuntimeException ex) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(ex);
+        }
+        return promise;
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     *
+     * @return number of calls in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.configuration;
+
+/**
+ * How the groups of an authenticated user are resolved.
+ *
+ * @author GraviteeSource Team
+ */
+public enum GroupResolution {
+    /**
+     * Groups are not resolved.
+     */
+    NONE,
+
+    /**
+     * Groups listed by the <code>memberOf</code> attribute of the user entry, without any additional search.
+     */
+    MEMBER_OF,
+
+    /**
+     * Groups found by searching the groups having the user as member.
+     */
+    MEMBER_SEARCH,
+
+    /**
+     * Groups found by searching the groups having the user as member, then the groups having these groups as member,
+     * up to a maximum depth.
+     */
+    NESTED
+}
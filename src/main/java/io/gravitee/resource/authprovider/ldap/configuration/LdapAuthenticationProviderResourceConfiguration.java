@@ -36,6 +36,15 @@ public class LdapAuthenticationProviderResourceConfiguration implements Resource
 
     private boolean useStartTLS;
 
+    @Secret
+    private String bindContextSourceUrl;
+
+    private LoadBalancingStrategy loadBalancingStrategy = LoadBalancingStrategy.ACTIVE_PASSIVE;
+
+    private int serverEjectionThreshold = 3;
+
+    private long serverProbeInterval = 10000L;
+
     @Secret
     private String contextSourceBase;
 
@@ -49,12 +58,75 @@ public class LdapAuthenticationProviderResourceConfiguration implements Resource
 
     private String userSearchFilter;
 
+    private String userDnPattern;
+
     private List<String> attributes;
 
+    private boolean attributesFromSearch;
+
+    private boolean excludeBinaryAttributes = true;
+
+    private int attributeMaxValueSize = 0;
+
+    private GroupResolution groupResolution = GroupResolution.NONE;
+
+    private String groupSearchBase = "";
+
+    private String groupSearchFilter = "(member={0})";
+
+    private int groupMaxDepth = 3;
+
+    private String groupAttribute = "groups";
+
+    private int groupCacheMaxElements = 1000;
+
+    private long groupMembershipCacheTimeToLive = Duration.ofMinutes(5).toMillis();
+
+    private long groupTreeCacheTimeToLive = Duration.ofMinutes(1).toMillis();
+
     private int cacheMaxElements = 100;
 
     private int cacheTimeToLive = 60000;
 
+    private int cacheRefreshAheadWindow = 0;
+
+    private int cacheStaleWhileRevalidate = 0;
+
+    private int cacheInvalidationInterval = 0;
+
+    private boolean sharedCache;
+
+    private String cacheSnapshotPath;
+
+    @Secret(FieldKind.PASSWORD)
+    private String cacheSnapshotKey;
+
+    private int dnCacheMaxElements = 0;
+
+    private long dnCacheTimeToLive = Duration.ofHours(1).toMillis();
+
+    private int dnBatchMaxSize = 0;
+
+    private long dnBatchWindow = 2L;
+
+    private boolean mirror = false;
+
+    private int mirrorPageSize = 500;
+
+    private long mirrorSyncInterval = 60000L;
+
+    private long mirrorReloadInterval = Duration.ofDays(1).toMillis();
+
+    private int failureCacheMaxElements = 1000;
+
+    private int failureCacheTimeToLive = 5000;
+
+    private int failureThrottleThreshold = 0;
+
+    private long failureThrottleInitialBackoff = 1000L;
+
+    private long failureThrottleMaxBackoff = 60000L;
+
     private Long connectTimeout = 5000L;
 
     private Long responseTimeout = 5000L;
@@ -63,5 +135,39 @@ public class LdapAuthenticationProviderResourceConfiguration implements Resource
 
     private Integer maxPoolSize = 15;
 
+    private Integer bindMinPoolSize = 0;
+
+    private Integer bindMaxPoolSize = 15;
+
+    private long startupWaitTimeout = 5000L;
+
+    private int startupQueueSize = 1000;
+
+    private int bulkheadQueueSize = 1000;
+
+    private boolean bulkheadAdaptiveLimit = false;
+
+    private int bulkheadMinLimit = 1;
+
+    private int circuitBreakerFailureRateThreshold = 0;
+
+    private int circuitBreakerWindowSize = 20;
+
+    private long circuitBreakerOpenDuration = 10000L;
+
+    private int circuitBreakerHalfOpenProbes = 3;
+
+    private int hedgingPercentile = 0;
+
+    private int hedgingBudget = 10;
+
+    private boolean hedgingBinds = false;
+
+    private long authenticationTimeout = 0L;
+
+    /**
+     * @deprecated expired entries are now removed by the cache maintenance, this interval is no longer used.
+     */
+    @Deprecated
     private long cacheChecksMs = Duration.ofMinutes(1).toMillis();
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.configuration;
+
+/**
+ * How connections are spread across the LDAP servers of a comma-separated URL.
+ *
+ * @author GraviteeSource Team
+ */
+public enum LoadBalancingStrategy {
+    /**
+     * All connections go to the first server available, the others being used on failure only.
+     */
+    ACTIVE_PASSIVE,
+
+    /**
+     * Servers are used in turn.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Servers are picked at random.
+     */
+    RANDOM,
+
+    /**
+     * The server with the lowest response time, weighted by its pending operations, is preferred.
+     */
+    LEAST_LATENCY
+}
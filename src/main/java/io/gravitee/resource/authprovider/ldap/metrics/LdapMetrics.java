@@ -0,0 +1,523 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.metrics;
+
+import io.gravitee.resource.authprovider.ldap.auth.DirectoryMirror;
+import io.gravitee.resource.authprovider.ldap.concurrent.CircuitBreaker;
+import io.gravitee.resource.authprovider.ldap.routing.LdapRouter;
+import io.gravitee.resource.authprovider.ldap.routing.LdapServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import org.ldaptive.LdapException;
+import org.ldaptive.PooledConnectionFactory;
+
+/**
+ * Meters of the authentications handled by an LDAP resource, registered in a Micrometer registry. Besides the tags given
+ * by the resource, meters are tagged with an <code>instance</code> unique to this JVM, so that resources sharing a name
+ * never share meters, nor remove the meters of one another when stopped. Meters are also recorded locally, so that they
+ * can be read even when the export registry keeps none.
+ * <p>
+ * Exposes:
+ * <ul>
+ *     <li><code>authentication</code>: latency of LDAP authentications, by outcome</li>
+ *     <li><code>phase</code>: latency of each step of LDAP authentications (queue, DN resolution, bind, entry resolution,
+ *     group resolution)</li>
+ *     <li><code>hedged</code>: operations sent to a second server, by phase</li>
+ *     <li><code>dn_batch.size</code>, <code>dn_batch.wait</code>: logins whose DNs are searched at once, and their wait</li>
+ *     <li><code>cache</code>: cache lookups, by result (hit, miss, stale, shared)</li>
+ *     <li><code>cache.invalidated</code>: cached authentications evicted because the user entry changed</li>
+ *     <li><code>coalesced</code>, <code>rejected</code>: authentications answered without their own LDAP round trip, the
+ *     latter by reason</li>
+ *     <li><code>startup</code>: time taken to open the initial connections of the pools</li>
+ *     <li><code>service_account_binds</code>: binds of the service account</li>
+ *     <li><code>pool.connections</code>: connections of each pool, by server and state (active, idle)</li>
+ *     <li><code>pool.acquire</code>, <code>pool.validation</code>: time taken to borrow a connection from each pool, and
+ *     to validate a connection, by result (valid, invalid)</li>
+ *     <li><code>pool.pending</code>: authentications waiting for a worker, and thus for a connection</li>
+ *     <li><code>bulkhead.limit</code>, <code>bulkhead.active</code>: workers allowed and busy</li>
+ *     <li><code>circuit.state</code>: state of the circuit breaker</li>
+ *     <li><code>server.latency</code>, <code>server.healthy</code>: response time and health of each routed server</li>
+ *     <li><code>mirror.entries</code>, <code>mirror.bytes</code>, <code>mirror.lag</code>: size of the directory mirror
+ *     and time since it was last synced</li>
+ * </ul>
+ * All meter names are prefixed with {@value #PREFIX}.
+ *
+ * @author GraviteeSource Team
+ */
+public class LdapMetrics {
+
+    public static final String PREFIX = "gravitee.resource.ldap.";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_INVALID_CREDENTIALS = "invalid_credentials";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+    public static final String OUTCOME_ERROR = "error";
+
+    public static final String REJECTED_RECENTLY_REJECTED = "recently_rejected";
+    public static final String REJECTED_THROTTLED = "throttled";
+    public static final String REJECTED_STARTING = "starting";
+    public static final String REJECTED_BULKHEAD_FULL = "bulkhead_full";
+    public static final String REJECTED_CIRCUIT_OPEN = "circuit_open";
+
+    public static final String PHASE_QUEUE = "queue";
+    public static final String PHASE_DN_RESOLUTION = "dn_resolution";
+    public static final String PHASE_BIND = "bind";
+    public static final String PHASE_ENTRY_RESOLUTION = "entry_resolution";
+    public static final String PHASE_GROUP_RESOLUTION = "group_resolution";
+
+    /**
+     * Instances created in this JVM, numbering the <code>instance</code> tag.
+     */
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    /**
+     * Registry recording both locally and in the export registry.
+     */
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+    private final MeterRegistry localRegistry = new SimpleMeterRegistry();
+
+    private final MeterRegistry exportRegistry;
+
+    private final Tags tags;
+
+    /**
+     * Meters registered by this instance, removed on {@link #close()}.
+     */
+    private final List<Meter> meters = new CopyOnWriteArrayList<>();
+
+    /**
+     * Connection pools of the resource, by name.
+     */
+    private final Map<String, PooledConnectionFactory> pools = new ConcurrentHashMap<>();
+
+    private final Counter cacheHits;
+
+    private final Counter cacheMisses;
+
+    private final Counter staleHits;
+
+    private final Counter sharedHits;
+
+    private final Counter invalidated;
+
+    private final Counter coalesced;
+
+    private final Counter serviceAccountBinds;
+
+    private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> authentications = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> phases = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> hedged = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> acquisitions = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> validations = new ConcurrentHashMap<>();
+
+    private final Timer startup;
+
+    private final DistributionSummary dnBatchSize;
+
+    private final Timer dnBatchWait;
+
+    /**
+     * @param exportRegistry registry through which meters are exported
+     * @param tags           added to all meters, along with the <code>instance</code> tag
+     */
+    public LdapMetrics(MeterRegistry exportRegistry, Tags tags) {
+        this.exportRegistry = exportRegistry;
+        this.tags = tags.and("instance", Long.toString(INSTANCES.incrementAndGet()));
+        // the local registry comes first, it is the one read by the composite meters
+        registry.add(localRegistry);
+        registry.add(exportRegistry);
+        this.cacheHits = counter("cache", "result", "hit");
+        this.cacheMisses = counter("cache", "result", "miss");
+        this.staleHits = counter("cache", "result", "stale");
+        this.sharedHits = counter("cache", "result", "shared");
+        this.invalidated = counter("cache.invalidated");
+        this.coalesced = counter("coalesced");
+        this.serviceAccountBinds = counter("service_account_binds");
+        this.startup = timer("startup");
+        this.dnBatchSize = register(DistributionSummary.builder(PREFIX + "dn_batch.size").tags(this.tags).register(registry));
+        this.dnBatchWait = timer("dn_batch.wait");
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Records an authentication served by the result of an identical authentication already in flight.
+     */
+    public void coalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * Records an authentication round trip to the LDAP server.
+     *
+     * @param outcome  one of the <code>OUTCOME_*</code> constants
+     * @param duration of the authentication
+     */
+    public void ldapAuthentication(String outcome, long duration, TimeUnit unit) {
+        authentications.computeIfAbsent(outcome, o -> timer("authentication", "outcome", o)).record(duration, unit);
+    }
+
+    /**
+     * Records the duration of one step of an LDAP authentication.
+     *
+     * @param phase one of the <code>PHASE_*</code> constants
+     */
+    public void phase(String phase, long duration, TimeUnit unit) {
+        phases.computeIfAbsent(phase, p -> timer("phase", "phase", p)).record(duration, unit);
+    }
+
+    /**
+     * Records a user search resolving the DNs of several logins at once.
+     *
+     * @param size logins of the batch
+     */
+    public void dnBatch(int size) {
+        dnBatchSize.record(size);
+    }
+
+    /**
+     * Records the time a login waited for its batch to be searched.
+     */
+    public void dnBatchWait(long duration, TimeUnit unit) {
+        dnBatchWait.record(duration, unit);
+    }
+
+    /**
+     * Records the time taken to borrow a connection from a pool, waiting for one to be released or opened included.
+     *
+     * @param pool <code>search</code> or <code>bind</code>
+     */
+    public void poolAcquisition(String pool, long duration, TimeUnit unit) {
+        acquisitions.computeIfAbsent(pool, p -> timer("pool.acquire", "pool", p)).record(duration, unit);
+    }
+
+    /**
+     * Records the validation of a pooled connection.
+     *
+     * @param pool <code>search</code> or <code>bind</code>
+     */
+    public void poolValidation(String pool, boolean valid, long duration, TimeUnit unit) {
+        String result = valid ? "valid" : "invalid";
+        validations
+            .computeIfAbsent(pool + ":" + result, key -> timer("pool.validation", "pool", pool, "result", result))
+            .record(duration, unit);
+    }
+
+    /**
+     * Records an operation sent to a second server, the first one being slow to answer.
+     *
+     * @param phase one of the <code>PHASE_*</code> constants
+     */
+    public void hedged(String phase) {
+        hedged.computeIfAbsent(phase, p -> counter("hedged", "phase", p)).increment();
+    }
+
+    /**
+     * Runs one step of an LDAP authentication and records its duration.
+     *
+     * @param phase one of the <code>PHASE_*</code> constants
+     */
+    public <T> T time(String phase, LdapCall<T> call) throws LdapException {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            phase(phase, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records an authentication rejected without contacting the LDAP server.
+     *
+     * @param reason one of the <code>REJECTED_*</code> constants
+     */
+    public void rejected(String reason) {
+        rejected.computeIfAbsent(reason, r -> counter("rejected", "reason", r)).increment();
+    }
+
+    /**
+     * Records an expired authentication served while it is revalidated.
+     */
+    public void staleHit() {
+        staleHits.increment();
+    }
+
+    /**
+     * Records an authentication missing from the local cache, found in the store shared with other nodes.
+     */
+    public void sharedHit() {
+        sharedHits.increment();
+    }
+
+    /**
+     * Records cached authentications evicted because the entry of their user changed in the directory.
+     */
+    public void invalidated(int count) {
+        invalidated.increment(count);
+    }
+
+    /**
+     * Records the time taken to open the initial connections of the pools.
+     */
+    public void startup(long duration, TimeUnit unit) {
+        startup.record(duration, unit);
+    }
+
+    /**
+     * Records a bind of the service account, performed when a search connection is opened.
+     */
+    public void serviceAccountBind() {
+        serviceAccountBinds.increment();
+    }
+
+    /**
+     * Exposes a pool of all the servers, tagged as the server <code>0</code>.
+     */
+    public void pool(String name, PooledConnectionFactory pool) {
+        pool(name, name, 0, pool);
+    }
+
+    /**
+     * Exposes the pool and the health of each server of a router, pools being named <code>name@index</code>. Servers are
+     * tagged by their index in the URLs of the resource rather than by their URL, which may hold credentials.
+     */
+    public void router(String name, LdapRouter router) {
+        List<LdapServer> servers = router.servers();
+        for (int index = 0; index < servers.size(); index++) {
+            LdapServer server = servers.get(index);
+            Tags serverTags = Tags.of("pool", name, "server", Integer.toString(index));
+            pool(name + "@" + index, name, index, server.pool());
+            gauge("server.latency", server, LdapServer::latencyMillis, serverTags);
+            gauge("server.healthy", server, s -> s.isHealthy() ? 1 : 0, serverTags);
+        }
+    }
+
+    private void pool(String key, String name, int server, PooledConnectionFactory pool) {
+        pools.put(key, pool);
+        Tags poolTags = Tags.of("pool", name, "server", Integer.toString(server));
+        gauge("pool.connections", pool, PooledConnectionFactory::activeCount, poolTags.and("state", "active"));
+        gauge("pool.connections", pool, PooledConnectionFactory::availableCount, poolTags.and("state", "idle"));
+    }
+
+    /**
+     * Exposes the authentications waiting for a worker, and thus for a pooled connection.
+     */
+    public void executor(ThreadPoolExecutor executor) {
+        gauge("pool.pending", executor, e -> e.getQueue().size(), Tags.empty());
+        gauge("bulkhead.limit", executor, ThreadPoolExecutor::getMaximumPoolSize, Tags.empty());
+        gauge("bulkhead.active", executor, ThreadPoolExecutor::getActiveCount, Tags.empty());
+    }
+
+    /**
+     * Exposes the size of the directory mirror, and the time elapsed since it was last synced.
+     */
+    public void mirror(DirectoryMirror mirror) {
+        gauge("mirror.entries", mirror, DirectoryMirror::size, Tags.empty());
+        gauge("mirror.bytes", mirror, DirectoryMirror::bytes, Tags.empty());
+        gauge("mirror.lag", mirror, m -> m.lag() == null ? Double.NaN : m.lag().toMillis(), Tags.empty());
+    }
+
+    /**
+     * Exposes the state of the circuit breaker, as one gauge per state worth 1 for the current state.
+     */
+    public void circuitBreaker(CircuitBreaker circuitBreaker) {
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            gauge(
+                "circuit.state",
+                circuitBreaker,
+                breaker -> breaker.state() == state ? 1 : 0,
+                Tags.of("state", state.name().toLowerCase(Locale.ROOT))
+            );
+        }
+    }
+
+    public long cacheHits() {
+        return (long) cacheHits.count();
+    }
+
+    public long cacheMisses() {
+        return (long) cacheMisses.count();
+    }
+
+    public long coalescedAuthentications() {
+        return (long) coalesced.count();
+    }
+
+    public long ldapAuthentications() {
+        return authentications.values().stream().mapToLong(Timer::count).sum();
+    }
+
+    public long ldapAuthentications(String outcome) {
+        Timer timer = authentications.get(outcome);
+        return timer == null ? 0 : timer.count();
+    }
+
+    public long phases(String phase) {
+        Timer timer = phases.get(phase);
+        return timer == null ? 0 : timer.count();
+    }
+
+    public long dnBatches() {
+        return dnBatchSize.count();
+    }
+
+    public long dnBatchedLogins() {
+        return (long) dnBatchSize.totalAmount();
+    }
+
+    public long poolAcquisitions(String pool) {
+        Timer timer = acquisitions.get(pool);
+        return timer == null ? 0 : timer.count();
+    }
+
+    public long poolValidations(String pool) {
+        return validations
+            .entrySet()
+            .stream()
+            .filter(entry -> entry.getKey().startsWith(pool + ":"))
+            .mapToLong(entry -> entry.getValue().count())
+            .sum();
+    }
+
+    public long hedgedOperations(String phase) {
+        Counter counter = hedged.get(phase);
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    public long rejectedAuthentications() {
+        return rejected.values().stream().mapToLong(counter -> (long) counter.count()).sum();
+    }
+
+    public long rejectedAuthentications(String reason) {
+        Counter counter = rejected.get(reason);
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    public long staleHits() {
+        return (long) staleHits.count();
+    }
+
+    public long sharedHits() {
+        return (long) sharedHits.count();
+    }
+
+    public long invalidatedAuthentications() {
+        return (long) invalidated.count();
+    }
+
+    public long serviceAccountBinds() {
+        return (long) serviceAccountBinds.count();
+    }
+
+    /**
+     * @return the time taken to open the initial connections of the pools, zero while they are opened
+     */
+    public Duration startupTime() {
+        return Duration.ofNanos((long) startup.totalTime(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @return the current statistics of each connection pool, by name
+     */
+    public Map<String, PoolStatistics> pools() {
+        Map<String, PoolStatistics> statistics = new TreeMap<>();
+        pools.forEach((name, pool) -> statistics.put(name, new PoolStatistics(pool.activeCount(), pool.availableCount())));
+        return statistics;
+    }
+
+    /**
+     * Removes the meters of this instance from the registry.
+     */
+    public void close() {
+        meters.forEach(meter -> {
+            registry.remove(meter);
+            localRegistry.remove(meter.getId());
+            exportRegistry.remove(meter.getId());
+        });
+        meters.clear();
+        pools.clear();
+    }
+
+    private Counter counter(String name, String... extraTags) {
+        return register(Counter.builder(PREFIX + name).tags(tags).tags(extraTags).register(registry));
+    }
+
+    private Timer timer(String name, String... extraTags) {
+        return register(
+            Timer
+                .builder(PREFIX + name)
+                .tags(tags)
+                .tags(extraTags)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry)
+        );
+    }
+
+    private <T> void gauge(String name, T object, ToDoubleFunction<T> value, Tags extraTags) {
+        register(Gauge.builder(PREFIX + name, object, value).tags(tags).tags(extraTags).register(registry));
+    }
+
+    private <M extends Meter> M register(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    /**
+     * Call to the LDAP server.
+     */
+    @FunctionalInterface
+    public interface LdapCall<T> {
+        T call() throws LdapException;
+    }
+
+    /**
+     * @param active    connections currently borrowed from the pool
+     * @param available idle connections in the pool
+     */
+    public record PoolStatistics(int active, int available) {}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.ldaptive.Connection;
+import org.ldaptive.SearchConnectionValidator;
+
+/**
+ * Validates pooled connections with a search, recording the time taken by each validation and its result.
+ *
+ * @author GraviteeSource Team
+ */
+public class TimedConnectionValidator extends SearchConnectionValidator {
+
+    private final String pool;
+
+    private final LdapMetrics metrics;
+
+    /**
+     * @param pool    validated, <code>search</code> or <code>bind</code>
+     * @param metrics recording the validations
+     */
+    public TimedConnectionValidator(final String pool, final LdapMetrics metrics) {
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void applyAsync(final Connection conn, final Consumer<Boolean> function) {
+        long start = System.nanoTime();
+        super.applyAsync(
+            conn,
+            valid -> {
+                metrics.poolValidation(pool, Boolean.TRUE.equals(valid), System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                function.accept(valid);
+            }
+        );
+    }
+}
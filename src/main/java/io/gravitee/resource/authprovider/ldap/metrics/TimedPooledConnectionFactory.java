@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.LdapException;
+import org.ldaptive.PooledConnectionFactory;
+
+/**
+ * Connection pool recording the time taken to borrow each of its connections, waiting for one to be released or opened
+ * included.
+ *
+ * @author GraviteeSource Team
+ */
+public class TimedPooledConnectionFactory extends PooledConnectionFactory {
+
+    private final String name;
+
+    private final LdapMetrics metrics;
+
+    /**
+     * @param name    of the pool, <code>search</code> or <code>bind</code>
+     * @param config  of the connections
+     * @param metrics recording the acquisitions
+     */
+    public TimedPooledConnectionFactory(final String name, final ConnectionConfig config, final LdapMetrics metrics) {
+        super(config);
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws LdapException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            metrics.poolAcquisition(name, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
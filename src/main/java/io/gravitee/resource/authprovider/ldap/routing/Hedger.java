@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.routing;
+
+import io.gravitee.resource.authprovider.ldap.concurrent.Deadline;
+import io.gravitee.resource.authprovider.ldap.concurrent.LatencyWindow;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
+
+/**
+ * Sends an LDAP operation to a second server when the first one is slow, so that a single slow replica does not push
+ * authentications to the response timeout.
+ * <p>
+ * The operation is first sent to the server picked by the router. If it has not answered within the configured
+ * percentile of the recent latencies of the operation, it is sent as well to another healthy server: the first answer
+ * is used and the other attempt is cancelled, interrupting the thread waiting for it. Hedges are paid from a budget
+ * refilled by each operation, so that they add at most the configured percentage of operations to the directory load.
+ * <p>
+ * Attempts run on a dedicated executor, under the {@link Deadline} of the authentication, the caller waiting for them
+ * at most until that deadline. An attempt the executor rejects fails, and a hedge it rejects is not sent. Answers not
+ * used, such as a bind holding a connection, are released.
+ * <p>
+ * Without a server to hedge to, the operation runs on the caller, bounded by the response timeout, once checked that
+ * the deadline is not exceeded.
+ *
+ * @param <T> type of the answer of the operation
+ *
+ * @author GraviteeSource Team
+ */
+public class Hedger<T> {
+
+    /**
+     * Latencies the percentile is computed from.
+     */
+    private static final int WINDOW_SIZE = 128;
+
+    /**
+     * Latencies recorded before hedging, the percentile of fewer being meaningless.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * Hedges the budget may save up, in hundredths of a hedge.
+     */
+    private static final int MAX_BUDGET = 10 * 100;
+
+    private final LdapRouter router;
+
+    private final int budget;
+
+    private final ExecutorService executor;
+
+    private final Runnable onHedge;
+
+    private final Consumer<T> release;
+
+    private final LatencyWindow latencies;
+
+    /**
+     * Hedges available, in hundredths of a hedge.
+     */
+    private final AtomicInteger available = new AtomicInteger();
+
+    /**
+     * @param router     routing the operation, <code>null</code> when there is a single pool and thus nothing to hedge to
+     * @param percentile of the recent latencies after which an operation is hedged, <code>0</code> to never hedge
+     * @param budget     percentage of operations that may be hedged
+     * @param executor   running the attempts, <code>null</code> when nothing is hedged
+     * @param onHedge    invoked on each hedge
+     * @param release    releasing an answer not used
+     */
+    public Hedger(LdapRouter router, int percentile, int budget, ExecutorService executor, Runnable onHedge, Consumer<T> release) {
+        this.router = percentile > 0 && budget > 0 ? router : null;
+        this.budget = budget;
+        this.executor = executor;
+        this.onHedge = onHedge;
+        this.release = release;
+        this.latencies = new LatencyWindow(WINDOW_SIZE, percentile, MIN_SAMPLES);
+    }
+
+    public T call(LdapMetrics.LdapCall<T> call) throws LdapException {
+        long remaining = Deadline.remainingNanos();
+        if (remaining <= 0) {
+            throw new LdapException(ResultCode.LDAP_TIMEOUT, "Authentication deadline exceeded");
+        }
+        if (router == null) {
+            return call.call();
+        }
+
+        Long deadline = Deadline.current();
+        LdapServer primary = router.next();
+        Attempt<T> first = attempt(primary, call, deadline);
+        if (first == null) {
+            throw new LdapException(ResultCode.BUSY, "Too many LDAP operations in progress");
+        }
+        Attempt<T> second = null;
+        T answer = null;
+        try {
+            deposit();
+            long delay = latencies.percentileNanos();
+            if (delay >= 0 && delay < remaining) {
+                try {
+                    answer = first.future.get(delay, TimeUnit.NANOSECONDS);
+                    return answer;
+                } catch (TimeoutException slow) {
+                    LdapServer secondary = router.next(primary);
+                    if (secondary != null && withdraw()) {
+                        second = attempt(secondary, call, deadline);
+                        if (second != null) {
+                            onHedge.run();
+                        }
+                    }
+                }
+            }
+            answer = firstAnswer(first, second).get(Math.max(0, Deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+            return answer;
+        } catch (TimeoutException e) {
+            throw new LdapException(ResultCode.LDAP_TIMEOUT, "Authentication deadline exceeded");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException ldapEx) {
+                throw ldapEx;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeEx) {
+                throw runtimeEx;
+            }
+            throw new LdapException(e.getCause() instanceof Exception ex ? ex : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        } finally {
+            release(first, answer);
+            release(second, answer);
+        }
+    }
+
+    /**
+     * @param deadline of the authentication, <code>null</code> when there is none
+     * @return the attempt, <code>null</code> if the executor rejected it
+     */
+    private Attempt<T> attempt(LdapServer server, LdapMetrics.LdapCall<T> call, Long deadline) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task =
+                executor.submit(() -> {
+                    if (deadline != null) {
+                        Deadline.start(deadline);
+                    }
+                    long start = System.nanoTime();
+                    T value;
+                    try {
+                        value = router.on(server, call);
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                        return;
+                    } finally {
+                        Deadline.clear();
+                    }
+                    latencies.record(System.nanoTime() - start);
+                    if (!future.complete(value)) {
+                        // cancelled meanwhile
+                        release.accept(value);
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return new Attempt<>(future, task);
+    }
+
+    /**
+     * Cancels an attempt still running, or releases its answer if it is not the one used.
+     */
+    private void release(Attempt<T> attempt, T answer) {
+        if (attempt == null) {
+            return;
+        }
+        if (!attempt.future.isDone()) {
+            attempt.task.cancel(true);
+            attempt.future.completeExceptionally(new CancellationException());
+        }
+        if (!attempt.future.isCompletedExceptionally()) {
+            T value = attempt.future.join();
+            if (value != answer && value != null) {
+                release.accept(value);
+            }
+        }
+    }
+
+    /**
+     * @return the first successful answer, or the failure of the first attempt if both fail
+     */
+    private CompletableFuture<T> firstAnswer(Attempt<T> first, Attempt<T> second) {
+        if (second == null) {
+            return first.future;
+        }
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        first.future.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                answer.complete(value);
+            } else {
+                second.future.whenComplete((otherValue, otherThrowable) -> {
+                    if (otherThrowable == null) {
+                        answer.complete(otherValue);
+                    } else {
+                        answer.completeExceptionally(throwable);
+                    }
+                });
+            }
+        });
+        second.future.thenAccept(answer::complete);
+        return answer;
+    }
+
+    private void deposit() {
+        available.getAndUpdate(tokens -> Math.min(MAX_BUDGET, tokens + budget));
+    }
+
+    private boolean withdraw() {
+        return available.getAndUpdate(tokens -> tokens >= 100 ? tokens - 100 : tokens) >= 100;
+    }
+
+    private record Attempt<T>(CompletableFuture<T> future, Future<?> task) {}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.routing;
+
+import io.gravitee.resource.authprovider.ldap.configuration.LoadBalancingStrategy;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.ConnectionValidator;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchConnectionValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads connections across several LDAP servers, each having its own pool, instead of the active/passive failover of a
+ * single pool over a multi-URL configuration.
+ * <p>
+ * Servers are picked among the healthy ones according to a {@link LoadBalancingStrategy}, the next ones being tried when
+ * a connection cannot be obtained. A server is ejected after consecutive failures, and brought back once a probe
+ * succeeds. All servers are probed periodically, so that a server failing operations on connections already open is
+ * ejected as well. When no server is healthy, all of them are tried so that the first one to recover serves again.
+ * <p>
+ * A call can also be pinned to a server, so that a {@link Hedger} sends the same operation to two different servers.
+ *
+ * @author GraviteeSource Team
+ */
+public class LdapRouter implements ConnectionFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(LdapRouter.class);
+
+    private final String name;
+
+    private final LoadBalancingStrategy strategy;
+
+    private final List<LdapServer> servers;
+
+    private final Duration probeInterval;
+
+    private final ConnectionValidator validator = new SearchConnectionValidator();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Server the connections of the current thread are obtained from first, when a call is pinned to a server.
+     */
+    private final ThreadLocal<LdapServer> preferred = new ThreadLocal<>();
+
+    private ScheduledExecutorService prober;
+
+    /**
+     * @param name          of the router, for logs
+     * @param strategy      picking the server of each connection
+     * @param servers       to route to, in configuration order, their pools being initialized by the caller
+     * @param probeInterval between two probes of each server
+     */
+    public LdapRouter(String name, LoadBalancingStrategy strategy, List<LdapServer> servers, Duration probeInterval) {
+        this.name = name;
+        this.strategy = strategy;
+        this.servers = List.copyOf(servers);
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Starts probing the servers, once their pools are initialized.
+     */
+    public void initialize() {
+        prober =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ldap-probe-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        prober.scheduleWithFixedDelay(this::probe, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public List<LdapServer> servers() {
+        return servers;
+    }
+
+    @Override
+    public ConnectionConfig getConnectionConfig() {
+        return servers.get(0).pool().getConnectionConfig();
+    }
+
+    /**
+     * @return the server the next connection would be obtained from
+     */
+    public LdapServer next() {
+        return select(candidates());
+    }
+
+    /**
+     * @param excluded server not to pick
+     * @return another healthy server, <code>null</code> if there is none
+     */
+    public LdapServer next(LdapServer excluded) {
+        List<LdapServer> candidates = new ArrayList<>(servers.size());
+        for (LdapServer server : servers) {
+            if (server != excluded && server.isHealthy()) {
+                candidates.add(server);
+            }
+        }
+        return candidates.isEmpty() ? null : select(candidates);
+    }
+
+    /**
+     * Runs a call whose connections are obtained from the given server, the other servers being tried only if it cannot
+     * provide one.
+     */
+    public <T> T on(LdapServer server, LdapMetrics.LdapCall<T> call) throws LdapException {
+        preferred.set(server);
+        try {
+            return call.call();
+        } finally {
+            preferred.remove();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws LdapException {
+        List<LdapServer> candidates = candidates();
+
+        LdapException failure = null;
+        LdapServer preferredServer = preferred.get();
+        if (preferredServer != null) {
+            try {
+                return preferredServer.pool().getConnection();
+            } catch (LdapException ex) {
+                logger.debug("Unable to get a connection to LDAP server [{}] of [{}]", preferredServer, name, ex);
+                failure = ex;
+                failed(preferredServer);
+                candidates.remove(preferredServer);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            LdapServer server = select(candidates);
+            try {
+                return server.pool().getConnection();
+            } catch (LdapException ex) {
+                logger.debug("Unable to get a connection to LDAP server [{}] of [{}]", server, name, ex);
+                failure = ex;
+                failed(server);
+                candidates.remove(server);
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+        servers.forEach(server -> server.pool().close());
+    }
+
+    /**
+     * @return the healthy servers, or all of them when none is healthy
+     */
+    private List<LdapServer> candidates() {
+        List<LdapServer> candidates = new ArrayList<>(servers.size());
+        for (LdapServer server : servers) {
+            if (server.isHealthy()) {
+                candidates.add(server);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(servers);
+        }
+        return candidates;
+    }
+
+    private LdapServer select(List<LdapServer> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        return switch (strategy) {
+            case ACTIVE_PASSIVE -> candidates.get(0);
+            case ROUND_ROBIN -> candidates.get(Math.floorMod(next.getAndIncrement(), size));
+            case RANDOM -> candidates.get(ThreadLocalRandom.current().nextInt(size));
+            case LEAST_LATENCY -> leastLatency(candidates);
+        };
+    }
+
+    /**
+     * Power of two choices: the best of two random servers, so that a server is not flooded as soon as it is the fastest
+     * and slower ones keep being sampled.
+     */
+    private LdapServer leastLatency(List<LdapServer> candidates) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        LdapServer a = candidates.get(first);
+        LdapServer b = candidates.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private void probe() {
+        for (LdapServer server : servers) {
+            boolean up;
+            try (Connection connection = server.pool().getConnection()) {
+                up = validator.apply(connection);
+            } catch (LdapException | RuntimeException ex) {
+                logger.debug("Probe of LDAP server [{}] of [{}] failed", server, name, ex);
+                up = false;
+            }
+            if (!up) {
+                failed(server);
+            } else if (server.success()) {
+                logger.info("LDAP server [{}] of [{}] is back", server, name);
+            }
+        }
+    }
+
+    private void failed(LdapServer server) {
+        if (server.failure()) {
+            logger.warn("Ejecting LDAP server [{}] of [{}] after consecutive failures", server, name);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.routing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ldaptive.Connection;
+import org.ldaptive.PooledConnectionFactory;
+
+/**
+ * One LDAP server of an {@link LdapRouter}, with its own connection pool and health.
+ * <p>
+ * Connections borrowed from the pool are tracked, so that the time they are held, covering the operations run on them,
+ * feeds an exponentially weighted moving average of the server response time.
+ *
+ * @author GraviteeSource Team
+ */
+public class LdapServer {
+
+    /**
+     * Weight of the latest response time in the average.
+     */
+    private static final double ALPHA = 0.2;
+
+    private final String url;
+
+    private final PooledConnectionFactory pool;
+
+    /**
+     * Consecutive failures ejecting the server.
+     */
+    private final int ejectionThreshold;
+
+    /**
+     * Borrowed connections, with the time they were borrowed at. Weakly referenced, so that connections discarded by the
+     * pool without being given back are not retained.
+     */
+    private final Cache<Connection, Long> borrowed = Caffeine.newBuilder().weakKeys().executor(Runnable::run).build();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * Racy updates may lose a sample, which the average does not need.
+     */
+    private volatile double latencyNanos;
+
+    private volatile boolean healthy = true;
+
+    /**
+     * @param url               of the server
+     * @param pool              of connections to the server, not yet initialized
+     * @param ejectionThreshold consecutive failures ejecting the server
+     */
+    public LdapServer(String url, PooledConnectionFactory pool, int ejectionThreshold) {
+        this.url = url;
+        this.pool = pool;
+        this.ejectionThreshold = Math.max(1, ejectionThreshold);
+        pool.setActivator(connection -> {
+            borrowed.put(connection, System.nanoTime());
+            return true;
+        });
+        pool.setPassivator(connection -> {
+            Long start = borrowed.asMap().remove(connection);
+            if (start != null) {
+                record(System.nanoTime() - start);
+            }
+            return true;
+        });
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public PooledConnectionFactory pool() {
+        return pool;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * @return the average time connections to this server are held, in milliseconds
+     */
+    public double latencyMillis() {
+        return latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return connections to this server currently borrowed
+     */
+    public long pending() {
+        return borrowed.estimatedSize();
+    }
+
+    /**
+     * @return the expected cost of sending one more operation to this server
+     */
+    double score() {
+        return latencyNanos * (pending() + 1);
+    }
+
+    /**
+     * Records a successful probe of this server, bringing it back if it was ejected.
+     *
+     * @return <code>true</code> if the server was ejected
+     */
+    boolean success() {
+        consecutiveFailures.set(0);
+        boolean ejected = !healthy;
+        healthy = true;
+        return ejected;
+    }
+
+    /**
+     * Records a failure to reach this server, ejecting it once the threshold of consecutive failures is reached.
+     *
+     * @return <code>true</code> if this failure ejected the server
+     */
+    boolean failure() {
+        if (consecutiveFailures.incrementAndGet() >= ejectionThreshold && healthy) {
+            healthy = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void record(long elapsedNanos) {
+        double average = latencyNanos;
+        latencyNanos = average == 0 ? elapsedNanos : average + ALPHA * (elapsedNanos - average);
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process LDAP directory used as a stand-in for a real server, with a configurable latency and error ratio applied
+ * to every search and bind, and counters of the operations it served.
+ *
+ * @author GraviteeSource Team
+ */
+public class InMemoryLdapServer implements AutoCloseable {
+
+    public static final String BASE_DN = "dc=planetexpress,dc=com";
+    public static final String ADMIN_DN = "cn=admin," + BASE_DN;
+    public static final String ADMIN_PASSWORD = "GoodNewsEveryone";
+    public static final String PEOPLE_DN = "ou=people," + BASE_DN;
+
+    private final InMemoryDirectoryServer server;
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong binds = new AtomicLong();
+    private final AtomicLong adminBinds = new AtomicLong();
+
+    private volatile long latencyMs;
+
+    private volatile double errorRatio;
+
+    public InMemoryLdapServer() throws LDAPException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        config.addInMemoryOperationInterceptor(
+            new InMemoryOperationInterceptor() {
+                @Override
+                public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+                    searches.incrementAndGet();
+                    pause();
+                    maybeFail();
+                }
+
+                @Override
+                public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request) throws LDAPException {
+                    binds.incrementAndGet();
+                    if (ADMIN_DN.equalsIgnoreCase(request.getRequest().getBindDN())) {
+                        adminBinds.incrementAndGet();
+                    }
+                    pause();
+                    maybeFail();
+                }
+            }
+        );
+
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE_DN, "objectClass: top", "objectClass: domain", "dc: planetexpress");
+        server.add("dn: " + PEOPLE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: people");
+    }
+
+    public InMemoryLdapServer start() throws LDAPException {
+        server.startListening();
+        return this;
+    }
+
+    /**
+     * Adds a user under <code>ou=people</code>, its password being its uid.
+     */
+    public InMemoryLdapServer addUser(String uid) throws LDAPException {
+        server.add(
+            "dn: uid=" + uid + "," + PEOPLE_DN,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: " + uid,
+            "cn: " + uid,
+            "sn: " + uid,
+            "displayName: " + uid,
+            "mail: " + uid + "@planetexpress.com",
+            "ou: Delivering Crew",
+            "userPassword: " + uid
+        );
+        return this;
+    }
+
+    /**
+     * Adds an entry, given as LDIF lines.
+     */
+    public InMemoryLdapServer add(String... ldifLines) throws LDAPException {
+        server.add(ldifLines);
+        return this;
+    }
+
+    /**
+     * Modifies an entry, given as LDIF lines.
+     */
+    public InMemoryLdapServer modify(String... ldifLines) throws LDAPException {
+        server.modify(ldifLines);
+        return this;
+    }
+
+    /**
+     * Deletes an entry.
+     */
+    public InMemoryLdapServer delete(String dn) throws LDAPException {
+        server.delete(dn);
+        return this;
+    }
+
+    public InMemoryLdapServer withLatency(long latency, TimeUnit unit) {
+        this.latencyMs = unit.toMillis(latency);
+        return this;
+    }
+
+    /**
+     * Makes the given ratio of searches and binds fail with <code>unavailable</code>.
+     */
+    public InMemoryLdapServer withErrorRatio(double errorRatio) {
+        this.errorRatio = errorRatio;
+        return this;
+    }
+
+    /**
+     * Closes all client connections, as a server restart or a network failure would.
+     */
+    public void dropConnections() {
+        server.closeAllConnections(false);
+    }
+
+    public String url() {
+        return "ldap://localhost:" + server.getListenPort();
+    }
+
+    public long searches() {
+        return searches.get();
+    }
+
+    public long binds() {
+        return binds.get();
+    }
+
+    /**
+     * @return binds of the service account
+     */
+    public long adminBinds() {
+        return adminBinds.get();
+    }
+
+    public void resetCounters() {
+        searches.set(0);
+        binds.set(0);
+        adminBinds.set(0);
+    }
+
+    /**
+     * @return a configuration pointing to this directory, users being searched with their uid
+     */
+    public LdapAuthenticationProviderResourceConfiguration newConfiguration() {
+        LdapAuthenticationProviderResourceConfiguration configuration = new LdapAuthenticationProviderResourceConfiguration();
+        configuration.setContextSourceUrl(url());
+        configuration.setContextSourceBase(BASE_DN);
+        configuration.setContextSourceUsername(ADMIN_DN);
+        configuration.setContextSourcePassword(ADMIN_PASSWORD);
+        configuration.setUserSearchFilter("uid={0}");
+        configuration.setUserSearchBase("ou=people");
+        return configuration;
+    }
+
+    @Override
+    public void close() {
+        server.shutDown(true);
+    }
+
+    private void maybeFail() throws LDAPException {
+        double ratio = errorRatio;
+        if (ratio > 0 && ThreadLocalRandom.current().nextDouble() < ratio) {
+            throw new LDAPException(ResultCode.UNAVAILABLE, "Injected failure");
+        }
+    }
+
+    private void pause() {
+        long latency = latencyMs;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
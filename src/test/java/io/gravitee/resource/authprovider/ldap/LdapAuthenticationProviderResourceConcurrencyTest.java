@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import static io.gravitee.resource.authprovider.ldap.Helper.newLdapResource;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.el.spel.context.SecuredResolver;
+import io.gravitee.resource.authprovider.api.Authentication;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class LdapAuthenticationProviderResourceConcurrencyTest {
+
+    static final int USERS = 40;
+    static final long LATENCY_MS = 50;
+
+    static TemplateEngine templateEngine;
+
+    static InMemoryLdapServer ldapServer;
+
+    private LdapAuthenticationProviderResource underTest;
+
+    @BeforeAll
+    static void init() throws Exception {
+        SecuredResolver.initialize(null);
+        templateEngine = TemplateEngine.templateEngine();
+        ldapServer = new InMemoryLdapServer().start();
+        for (int i = 0; i < USERS; i++) {
+            ldapServer.addUser("user" + i);
+        }
+    }
+
+    @AfterAll
+    static void shutdown() {
+        ldapServer.close();
+    }
+
+    @BeforeEach
+    void create() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+        configuration.setCacheMaxElements(0);
+        configuration.setMaxPoolSize(10);
+        underTest = newLdapResource(configuration, templateEngine);
+        underTest.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        underTest.stop();
+        ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void should_not_block_caller_while_directory_is_slow() throws Exception {
+        ldapServer.withLatency(LATENCY_MS, TimeUnit.MILLISECONDS);
+
+        List<CompletableFuture<Authentication>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < USERS; i++) {
+            CompletableFuture<Authentication> result = new CompletableFuture<>();
+            underTest.authenticate("user" + i, "user" + i, result::complete);
+            results.add(result);
+        }
+        long submitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // a blocking authenticate would have spent at least one search and one bind per user on the caller thread
+        assertThat(submitMs).isLessThan(USERS * LATENCY_MS);
+        // authentications run in parallel on the pool, throughput is not bound by the directory latency of a single login
+        assertThat(totalMs).isLessThan(USERS * 2 * LATENCY_MS / 2);
+        assertThat(results).allSatisfy(result -> assertThat(result.join()).isNotNull());
+    }
+
+    @Test
+    void should_coalesce_concurrent_identical_logins() throws Exception {
+        ldapServer.withLatency(LATENCY_MS, TimeUnit.MILLISECONDS);
+
+        List<CompletableFuture<Authentication>> results = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            CompletableFuture<Authentication> result = new CompletableFuture<>();
+            underTest.authenticate("user0", "user0", result::complete);
+            results.add(result);
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        assertThat(results).allSatisfy(result -> assertThat(result.join()).isNotNull());
+        assertThat(underTest.metrics().ldapAuthentications()).isEqualTo(1);
+        assertThat(underTest.metrics().coalescedAuthentications()).isEqualTo(USERS - 1);
+    }
+
+    @Test
+    void should_not_rebind_service_account_under_load() throws Exception {
+        ldapServer.withLatency(10, TimeUnit.MILLISECONDS);
+        ldapServer.resetCounters();
+
+        List<CompletableFuture<Authentication>> results = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < USERS; i++) {
+                CompletableFuture<Authentication> result = new CompletableFuture<>();
+                underTest.authenticate("user" + i, "user" + i, result::complete);
+                results.add(result);
+            }
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        assertThat(results).allSatisfy(result -> assertThat(result.join()).isNotNull());
+        // users are bound on their own pool, search connections keep the service account identity
+        assertThat(ldapServer.binds() - ldapServer.adminBinds()).isEqualTo(3L * USERS);
+        assertThat(ldapServer.adminBinds()).isLessThanOrEqualTo(underTest.configuration().getMaxPoolSize());
+        assertThat(underTest.metrics().serviceAccountBinds()).isLessThanOrEqualTo(underTest.configuration().getMaxPoolSize());
+        assertThat(underTest.metrics().pools()).containsOnlyKeys("bind", "search");
+    }
+
+    @Test
+    void should_batch_concurrent_user_searches() throws Exception {
+        underTest.stop();
+        LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+        configuration.setCacheMaxElements(0);
+        configuration.setMaxPoolSize(10);
+        configuration.setDnBatchMaxSize(10);
+        configuration.setDnBatchWindow(LATENCY_MS);
+        configuration.setAttributesFromSearch(true);
+        underTest = newLdapResource(configuration, templateEngine);
+        underTest.start();
+        ldapServer.withLatency(10, TimeUnit.MILLISECONDS);
+        ldapServer.resetCounters();
+
+        List<CompletableFuture<Authentication>> results = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            CompletableFuture<Authentication> result = new CompletableFuture<>();
+            underTest.authenticate("user" + i, "user" + i, result::complete);
+            results.add(result);
+        }
+        CompletableFuture<Authentication> unknown = new CompletableFuture<>();
+        underTest.authenticate("nobody", "nobody", unknown::complete);
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        // user attributes come along with the DNs
+        assertThat(results).allSatisfy(result -> assertThat(result.join().getAttributes()).containsKey("mail"));
+        assertThat(unknown.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(ldapServer.searches()).isLessThan(USERS);
+        assertThat(underTest.metrics().dnBatches()).isLessThan(USERS);
+        assertThat(underTest.metrics().dnBatchedLogins()).isEqualTo(USERS + 1);
+    }
+
+    @Test
+    void should_resolve_alone_usernames_missing_from_batch() throws Exception {
+        underTest.stop();
+        LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+        configuration.setCacheMaxElements(0);
+        configuration.setDnBatchMaxSize(2);
+        configuration.setDnBatchWindow(1000);
+        underTest = newLdapResource(configuration, templateEngine);
+        underTest.start();
+
+        CompletableFuture<Authentication> user0 = new CompletableFuture<>();
+        CompletableFuture<Authentication> user1 = new CompletableFuture<>();
+        underTest.authenticate("user0", "user0", user0::complete);
+        // matched by the directory, which ignores the surrounding spaces, but not mapped back to an entry by the batch
+        underTest.authenticate(" user1 ", "user1", user1::complete);
+
+        assertThat(user0.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(user1.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(underTest.metrics().dnBatches()).isEqualTo(1);
+    }
+
+    @Test
+    void should_complete_handler_on_caller_event_loop() throws Exception {
+        ldapServer.withLatency(LATENCY_MS, TimeUnit.MILLISECONDS);
+        Vertx vertx = Vertx.vertx();
+        try {
+            Context context = vertx.getOrCreateContext();
+            CompletableFuture<Boolean> onCallerContext = new CompletableFuture<>();
+            context.runOnContext(ignored ->
+                underTest.authenticate("user0", "user0", authentication -> onCallerContext.complete(Vertx.currentContext() == context))
+            );
+
+            assertThat(onCallerContext.get(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    void should_complete_handler_on_failed_authentication() throws Exception {
+        CompletableFuture<Authentication> result = new CompletableFuture<>();
+        underTest.authenticate("user0", "wrong", result::complete);
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(underTest.metrics().ldapAuthentications(LdapMetrics.OUTCOME_INVALID_CREDENTIALS)).isEqualTo(1);
+        assertThat(underTest.metrics().ldapAuthentications(LdapMetrics.OUTCOME_SUCCESS)).isZero();
+    }
+
+    @Test
+    void should_record_each_phase_of_authentication() throws Exception {
+        CompletableFuture<Authentication> result = new CompletableFuture<>();
+        underTest.authenticate("user0", "user0", result::complete);
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(underTest.metrics().ldapAuthentications(LdapMetrics.OUTCOME_SUCCESS)).isEqualTo(1);
+        assertThat(underTest.metrics().phases(LdapMetrics.PHASE_QUEUE)).isEqualTo(1);
+        assertThat(underTest.metrics().phases(LdapMetrics.PHASE_DN_RESOLUTION)).isEqualTo(1);
+        assertThat(underTest.metrics().phases(LdapMetrics.PHASE_BIND)).isEqualTo(1);
+        assertThat(underTest.metrics().phases(LdapMetrics.PHASE_ENTRY_RESOLUTION)).isEqualTo(1);
+        assertThat(underTest.metrics().poolAcquisitions("search")).isPositive();
+        assertThat(underTest.metrics().poolAcquisitions("bind")).isPositive();
+    }
+
+    @Test
+    void should_keep_meters_of_resources_sharing_a_name_apart() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        LdapAuthenticationProviderResource first = newLdapResource(ldapServer.newConfiguration(), templateEngine);
+        LdapAuthenticationProviderResource second = newLdapResource(ldapServer.newConfiguration(), templateEngine);
+        first.setDeploymentContext(new TestDeploymentContext(templateEngine).withComponent(MeterRegistry.class, registry));
+        second.setDeploymentContext(new TestDeploymentContext(templateEngine).withComponent(MeterRegistry.class, registry));
+        first.start();
+        second.start();
+        try {
+            assertThat(registry.getMeters()).map(Meter::getId).allMatch(id -> id.getTag("instance") != null);
+            String secondInstance = registry
+                .getMeters()
+                .stream()
+                .map(meter -> meter.getId().getTag("instance"))
+                .max(Comparator.comparingLong(Long::parseLong))
+                .orElseThrow();
+            List<Meter.Id> secondMeters = registry
+                .getMeters()
+                .stream()
+                .map(Meter::getId)
+                .filter(id -> secondInstance.equals(id.getTag("instance")))
+                .toList();
+            first.stop();
+
+            assertThat(secondMeters).map(Meter.Id::getName).contains(LdapMetrics.PREFIX + "dn_batch.size");
+            assertThat(registry.getMeters()).map(Meter::getId).containsExactlyInAnyOrderElementsOf(secondMeters);
+            assertThat(secondMeters).allMatch(id -> id.getTag("url") == null);
+        } finally {
+            second.stop();
+        }
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import static io.gravitee.resource.authprovider.ldap.Helper.newLdapResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.el.spel.context.SecuredResolver;
+import io.gravitee.resource.authprovider.api.Authentication;
+import io.gravitee.resource.authprovider.ldap.cache.AuthenticationStore;
+import io.gravitee.resource.authprovider.ldap.cache.InMemoryAuthenticationStore;
+import io.gravitee.resource.authprovider.ldap.configuration.GroupResolution;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the resource against an in-process directory, counting the operations sent to the LDAP server.
+ *
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class LdapAuthenticationProviderResourceInMemoryTest {
+
+    static TemplateEngine templateEngine;
+
+    static InMemoryLdapServer ldapServer;
+
+    private LdapAuthenticationProviderResource underTest;
+
+    @BeforeAll
+    static void init() throws Exception {
+        SecuredResolver.initialize(null);
+        templateEngine = TemplateEngine.templateEngine();
+        ldapServer = new InMemoryLdapServer().start().addUser("fry").addUser("leela");
+    }
+
+    @AfterAll
+    static void shutdown() {
+        ldapServer.close();
+    }
+
+    @BeforeEach
+    void create() throws Exception {
+        underTest = newLdapResource(ldapServer.newConfiguration(), templateEngine);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        System.clearProperty(LdapAuthenticationProviderResource.SNAPSHOT_DIRECTORY_PROPERTY);
+        underTest.stop();
+    }
+
+    @Test
+    void should_answer_rejected_credentials_from_failure_cache() throws Exception {
+        underTest.start();
+
+        assertThat(authenticate("fry", "wrong")).isNull();
+        assertThat(authenticate("fry", "wrong")).isNull();
+
+        assertThat(underTest.metrics().ldapAuthentications()).isEqualTo(1);
+        assertThat(underTest.metrics().rejectedAuthentications()).isEqualTo(1);
+        assertThat(authenticate("fry", "fry")).isNotNull();
+    }
+
+    @Test
+    void should_throttle_user_after_consecutive_failures() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = underTest.configuration();
+        configuration.setFailureCacheMaxElements(0);
+        configuration.setFailureThrottleThreshold(2);
+        configuration.setFailureThrottleInitialBackoff(60_000L);
+        underTest.start();
+
+        assertThat(authenticate("leela", "wrong1")).isNull();
+        assertThat(authenticate("leela", "wrong2")).isNull();
+        // the right password is rejected as well while the user is throttled
+        assertThat(authenticate("leela", "leela")).isNull();
+
+        assertThat(underTest.metrics().ldapAuthentications()).isEqualTo(2);
+        assertThat(underTest.metrics().rejectedAuthentications()).isEqualTo(1);
+    }
+
+    @Test
+    void should_refresh_cached_authentication_ahead_of_expiry() throws Exception {
+        underTest.configuration().setCacheTimeToLive(60_000);
+        underTest.configuration().setCacheRefreshAheadWindow(59_900);
+        underTest.start();
+
+        Authentication authentication = authenticate("fry", "fry");
+        long searches = ldapServer.searches();
+        ldapServer.withLatency(200, TimeUnit.MILLISECONDS);
+        try {
+            // served from the cache until the window is reached, the refresh then starting in background
+            await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> {
+                    assertThat(authenticate("fry", "fry")).isSameAs(authentication);
+                    return ldapServer.searches() > searches;
+                });
+
+            await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.metrics().ldapAuthentications() == 2);
+            assertThat(underTest.getCachedAuthentication("fry", "fry")).isNotNull().isNotSameAs(authentication);
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void should_serve_stale_authentication_while_revalidating() throws Exception {
+        underTest.configuration().setCacheTimeToLive(200);
+        underTest.configuration().setCacheStaleWhileRevalidate(5000);
+        underTest.start();
+
+        Authentication authentication = authenticate("fry", "fry");
+        ldapServer.withLatency(200, TimeUnit.MILLISECONDS);
+        try {
+            // served from the cache until it expires, then served stale while revalidated in background
+            await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> {
+                    assertThat(authenticate("fry", "fry")).isSameAs(authentication);
+                    return underTest.metrics().staleHits() == 1;
+                });
+
+            await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.metrics().ldapAuthentications() == 2);
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void should_authenticate_with_dn_pattern_without_user_search() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration directBindConfiguration = ldapServer.newConfiguration();
+        directBindConfiguration.setCacheMaxElements(0);
+        directBindConfiguration.setUserDnPattern("uid={0},ou=people");
+        LdapAuthenticationProviderResource directBind = newLdapResource(directBindConfiguration, templateEngine);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.start();
+        directBind.start();
+
+        ldapServer.withLatency(50, TimeUnit.MILLISECONDS);
+        try {
+            ldapServer.resetCounters();
+            long start = System.nanoTime();
+            Authentication searched = authenticate(underTest, "fry", "fry");
+            long searchLatency = System.nanoTime() - start;
+            long searchModeSearches = ldapServer.searches();
+
+            ldapServer.resetCounters();
+            start = System.nanoTime();
+            Authentication bound = authenticate(directBind, "fry", "fry");
+            long directBindLatency = System.nanoTime() - start;
+
+            assertThat(bound.getUsername()).isEqualTo(searched.getUsername()).isEqualTo("uid=fry,ou=people,dc=planetexpress,dc=com");
+            assertThat(bound.getAttributes()).isEqualTo(searched.getAttributes());
+            // only the entry read after the bind is left
+            assertThat(ldapServer.searches()).isEqualTo(searchModeSearches - 1);
+            assertThat(ldapServer.binds()).isEqualTo(1);
+            assertThat(directBindLatency).isLessThan(searchLatency);
+            assertThat(authenticate(directBind, "fry", "wrong")).isNull();
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+            directBind.stop();
+        }
+    }
+
+    @Test
+    void should_only_bind_users_whose_dn_is_cached() throws Exception {
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.configuration().setFailureCacheMaxElements(0);
+        underTest.configuration().setDnCacheMaxElements(100);
+        underTest.start();
+
+        assertThat(authenticate("leela", "leela")).isNotNull();
+
+        ldapServer.resetCounters();
+        assertThat(authenticate("leela", "leela")).isNotNull();
+        // entry read after the bind only
+        assertThat(ldapServer.searches()).isEqualTo(1);
+        assertThat(ldapServer.binds()).isEqualTo(1);
+
+        // a failed bind drops the cached DN
+        assertThat(authenticate("leela", "wrong")).isNull();
+        ldapServer.resetCounters();
+        assertThat(authenticate("leela", "leela")).isNotNull();
+        assertThat(ldapServer.searches()).isEqualTo(2);
+    }
+
+    @Test
+    void should_reuse_attributes_from_user_search() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration searchAttributesConfiguration = ldapServer.newConfiguration();
+        searchAttributesConfiguration.setCacheMaxElements(0);
+        searchAttributesConfiguration.setAttributesFromSearch(true);
+        LdapAuthenticationProviderResource searchAttributes = newLdapResource(searchAttributesConfiguration, templateEngine);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.start();
+        searchAttributes.start();
+
+        try {
+            ldapServer.resetCounters();
+            Authentication reread = authenticate(underTest, "fry", "fry");
+            assertThat(ldapServer.searches()).isEqualTo(2);
+            assertThat(ldapServer.binds()).isEqualTo(1);
+
+            ldapServer.resetCounters();
+            Authentication searched = authenticate(searchAttributes, "fry", "fry");
+            // user search only, the entry is not read again after the bind
+            assertThat(ldapServer.searches()).isEqualTo(1);
+            assertThat(ldapServer.binds()).isEqualTo(1);
+
+            assertThat(searched.getUsername()).isEqualTo(reread.getUsername());
+            assertThat(searched.getAttributes()).isEqualTo(reread.getAttributes());
+            assertThat(authenticate(searchAttributes, "fry", "wrong")).isNull();
+        } finally {
+            searchAttributes.stop();
+        }
+    }
+
+    @Test
+    void should_drop_binary_and_oversized_attributes() throws Exception {
+        ldapServer.add(
+            "dn: uid=bender," + InMemoryLdapServer.PEOPLE_DN,
+            "objectClass: inetOrgPerson",
+            "uid: bender",
+            "cn: bender",
+            "sn: Rodriguez",
+            "ou: Delivering Crew",
+            "description: " + "Bite my shiny metal ".repeat(20),
+            "jpegPhoto:: /9j/4AAQSkZJRgABAQEASABIAAD/2wBDAP8=",
+            "userPassword: bender"
+        );
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.configuration().setAttributeMaxValueSize(100);
+        underTest.configuration().setAttributesFromSearch(true);
+        underTest.start();
+
+        Authentication authentication = authenticate("bender", "bender");
+
+        assertThat(authentication.getAttributes()).containsEntry("ou", "Delivering Crew").doesNotContainKeys("jpegPhoto", "description");
+
+        LdapAuthenticationProviderResourceConfiguration photoConfiguration = ldapServer.newConfiguration();
+        photoConfiguration.setCacheMaxElements(0);
+        photoConfiguration.setAttributes(List.of("uid", "jpegPhoto"));
+        LdapAuthenticationProviderResource photo = newLdapResource(photoConfiguration, templateEngine);
+        photo.start();
+        try {
+            // explicitly requested binary attributes are kept, base64 encoded
+            assertThat(authenticate(photo, "bender", "bender").getAttributes())
+                .containsEntry("uid", "bender")
+                .containsEntry("jpegPhoto", "/9j/4AAQSkZJRgABAQEASABIAAD/2wBDAP8=");
+        } finally {
+            photo.stop();
+        }
+    }
+
+    @Test
+    void should_expand_nested_groups_once_per_time_to_live() throws Exception {
+        String groups = "ou=groups," + InMemoryLdapServer.BASE_DN;
+        String crew = "cn=crew," + groups;
+        String staff = "cn=staff," + groups;
+        String company = "cn=company," + groups;
+        ldapServer.add("dn: " + groups, "objectClass: organizationalUnit", "ou: groups");
+        ldapServer.add("dn: " + crew, "objectClass: groupOfNames", "cn: crew", "member: uid=fry," + InMemoryLdapServer.PEOPLE_DN);
+        ldapServer.add("dn: " + staff, "objectClass: groupOfNames", "cn: staff", "member: " + crew);
+        // cycles are ignored
+        ldapServer.add("dn: " + company, "objectClass: groupOfNames", "cn: company", "member: " + staff, "member: " + crew);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.configuration().setGroupResolution(GroupResolution.NESTED);
+        underTest.configuration().setGroupSearchBase("ou=groups");
+        underTest.start();
+
+        ldapServer.resetCounters();
+        Authentication authentication = authenticate("fry", "fry");
+        long firstSearches = ldapServer.searches();
+
+        assertThat(authentication.getAttributes()).containsEntry("groups", List.of(crew, staff, company));
+        assertThat(underTest.metrics().phases(LdapMetrics.PHASE_GROUP_RESOLUTION)).isEqualTo(1);
+
+        ldapServer.resetCounters();
+        assertThat(authenticate("fry", "fry").getAttributes()).containsEntry("groups", List.of(crew, staff, company));
+        // the direct groups of the user are searched again, the memberships of each group come from the cache
+        assertThat(ldapServer.searches()).isEqualTo(firstSearches - 3);
+        assertThat(authenticate("leela", "leela").getAttributes()).containsEntry("groups", List.of());
+    }
+
+    @Test
+    void should_share_authentications_across_nodes() throws Exception {
+        InMemoryAuthenticationStore store = new InMemoryAuthenticationStore();
+        LdapAuthenticationProviderResource otherNode = newLdapResource(ldapServer.newConfiguration(), templateEngine);
+        for (LdapAuthenticationProviderResource node : new LdapAuthenticationProviderResource[] { underTest, otherNode }) {
+            node.configuration().setSharedCache(true);
+            node.setDeploymentContext(new TestDeploymentContext(templateEngine).withComponent(AuthenticationStore.class, store));
+            node.start();
+        }
+
+        try {
+            Authentication authentication = authenticate(underTest, "fry", "fry");
+            Authentication shared = authenticate(otherNode, "fry", "fry");
+
+            assertThat(shared.getUsername()).isEqualTo(authentication.getUsername());
+            assertThat(shared.getAttributes()).isEqualTo(authentication.getAttributes());
+            assertThat(otherNode.metrics().ldapAuthentications()).isZero();
+            assertThat(otherNode.metrics().sharedHits()).isEqualTo(1);
+            // now served from the near cache
+            assertThat(authenticate(otherNode, "fry", "fry")).isSameAs(shared);
+            assertThat(otherNode.metrics().sharedHits()).isEqualTo(1);
+
+            // wrong credentials are never found in the store and always checked against LDAP
+            assertThat(authenticate(otherNode, "fry", "wrong")).isNull();
+            assertThat(otherNode.metrics().ldapAuthentications()).isEqualTo(1);
+            assertThat(store.size()).isEqualTo(1);
+        } finally {
+            otherNode.stop();
+        }
+    }
+
+    @Test
+    void should_warm_start_from_snapshot(@TempDir Path directory) throws Exception {
+        Path snapshot = snapshotDirectory(directory).resolve("ldap-cache.snapshot");
+        underTest.configuration().setCacheSnapshotPath("ldap-cache.snapshot");
+        underTest.configuration().setCacheSnapshotKey("GoodNewsEveryone");
+        underTest.start();
+
+        ldapServer.withLatency(50, TimeUnit.MILLISECONDS);
+        LdapAuthenticationProviderResource restarted = newLdapResource(underTest.configuration(), templateEngine);
+        try {
+            long start = System.nanoTime();
+            Authentication fry = authenticate("fry", "fry");
+            assertThat(authenticate("leela", "leela")).isNotNull();
+            long coldLatency = System.nanoTime() - start;
+            underTest.stop();
+            assertThat(snapshot).exists();
+
+            restarted.start();
+            start = System.nanoTime();
+            Authentication restored = authenticate(restarted, "fry", "fry");
+            assertThat(authenticate(restarted, "leela", "leela")).isNotNull();
+            long warmLatency = System.nanoTime() - start;
+
+            assertThat(restored.getUsername()).isEqualTo(fry.getUsername());
+            assertThat(restored.getAttributes()).isEqualTo(fry.getAttributes());
+            assertThat(restarted.metrics().ldapAuthentications()).isZero();
+            assertThat(warmLatency).isLessThan(coldLatency);
+            // only credentials that were cached are restored
+            assertThat(authenticate(restarted, "fry", "wrong")).isNull();
+            assertThat(restarted.metrics().ldapAuthentications()).isEqualTo(1);
+            assertThat(snapshot).doesNotExist();
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+            restarted.stop();
+        }
+    }
+
+    @Test
+    void should_start_cold_from_snapshot_encrypted_with_another_key(@TempDir Path directory) throws Exception {
+        Path snapshot = snapshotDirectory(directory).resolve("ldap-cache.snapshot");
+        underTest.configuration().setCacheSnapshotPath("ldap-cache.snapshot");
+        underTest.configuration().setCacheSnapshotKey("GoodNewsEveryone");
+        underTest.start();
+        authenticate("fry", "fry");
+        underTest.stop();
+        assertThat(new String(Files.readAllBytes(snapshot), StandardCharsets.ISO_8859_1)).doesNotContain("uid=fry");
+
+        LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+        configuration.setCacheSnapshotPath("ldap-cache.snapshot");
+        configuration.setCacheSnapshotKey("BadNewsEveryone");
+        LdapAuthenticationProviderResource restarted = newLdapResource(configuration, templateEngine);
+        byte[] written = Files.readAllBytes(snapshot);
+        restarted.start();
+        try {
+            assertThat(authenticate(restarted, "fry", "fry")).isNotNull();
+            assertThat(restarted.metrics().ldapAuthentications()).isEqualTo(1);
+        } finally {
+            restarted.stop();
+        }
+        // neither deleted nor replaced, it cannot be decrypted
+        assertThat(snapshot).hasBinaryContent(written);
+    }
+
+    @Test
+    void should_only_replace_snapshots_of_snapshot_directory(@TempDir Path directory) throws Exception {
+        Path snapshots = snapshotDirectory(directory.resolve("snapshots"));
+        Path gatewayConfiguration = Files.writeString(directory.resolve("gravitee.yml"), "gravitee");
+        Path notes = Files.writeString(snapshots.resolve("notes.txt"), "notes");
+
+        for (String fileName : List.of(gatewayConfiguration.toString(), "../gravitee.yml", "notes.txt")) {
+            LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+            configuration.setCacheSnapshotPath(fileName);
+            configuration.setCacheSnapshotKey("GoodNewsEveryone");
+            LdapAuthenticationProviderResource resource = newLdapResource(configuration, templateEngine);
+            resource.start();
+            assertThat(authenticate(resource, "fry", "fry")).isNotNull();
+            resource.stop();
+        }
+
+        assertThat(gatewayConfiguration).hasContent("gravitee");
+        assertThat(notes).hasContent("notes");
+        try (Stream<Path> files = Files.list(snapshots)) {
+            assertThat(files).containsExactly(notes);
+        }
+    }
+
+    /**
+     * Sets the directory of the cache snapshots, as the gateway administrator would.
+     */
+    private static Path snapshotDirectory(Path directory) throws Exception {
+        System.setProperty(LdapAuthenticationProviderResource.SNAPSHOT_DIRECTORY_PROPERTY, directory.toString());
+        return Files.createDirectories(directory);
+    }
+
+    @Test
+    void should_start_without_waiting_for_connections() throws Exception {
+        // search connections are bound with the service account when opened
+        ldapServer.withLatency(100, TimeUnit.MILLISECONDS);
+        try {
+            Duration connecting = Duration.ofMillis(underTest.configuration().getMinPoolSize() * 100L);
+            long start = System.nanoTime();
+            underTest.start();
+            long startMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertThat(startMs).isLessThan(connecting.toMillis());
+            // waits for the initial connections
+            assertThat(authenticate("fry", "fry")).isNotNull();
+            assertThat(underTest.warmUp()).isDone();
+            assertThat(underTest.metrics().startupTime()).isGreaterThanOrEqualTo(connecting);
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void should_reject_authentications_while_connecting_when_not_waiting() throws Exception {
+        underTest.configuration().setStartupWaitTimeout(0);
+        ldapServer.withLatency(100, TimeUnit.MILLISECONDS);
+        try {
+            underTest.start();
+
+            assertThat(authenticate("fry", "fry")).isNull();
+            assertThat(underTest.metrics().rejectedAuthentications(LdapMetrics.REJECTED_STARTING)).isEqualTo(1);
+
+            underTest.warmUp().get(5, TimeUnit.SECONDS);
+            assertThat(authenticate("fry", "fry")).isNotNull();
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void should_resolve_users_from_mirror() throws Exception {
+        underTest.configuration().setMirror(true);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.start();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().isLoaded());
+        ldapServer.resetCounters();
+
+        Authentication authentication = authenticate("fry", "fry");
+
+        assertThat(authentication).isNotNull();
+        assertThat(authentication.getAttributes()).containsEntry("mail", "fry@planetexpress.com");
+        // only the bind is sent to the directory
+        assertThat(ldapServer.searches()).isZero();
+        assertThat(ldapServer.binds()).isEqualTo(1);
+        assertThat(underTest.mirror().size()).isGreaterThanOrEqualTo(2);
+        assertThat(underTest.mirror().bytes()).isPositive();
+        assertThat(authenticate("fry", "wrong")).isNull();
+    }
+
+    @Test
+    void should_mirror_users_added_since_last_sync() throws Exception {
+        underTest.configuration().setMirror(true);
+        underTest.configuration().setMirrorSyncInterval(200L);
+        underTest.start();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().isLoaded());
+        int mirrored = underTest.mirror().size();
+
+        ldapServer.addUser("amy");
+        // searched as usual until the next sync
+        assertThat(authenticate("amy", "amy")).isNotNull();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().size() == mirrored + 1);
+        assertThat(underTest.mirror().lag()).isLessThan(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void should_drop_mirrored_users_renamed_or_no_longer_matching_filter() throws Exception {
+        ldapServer.add(user("cn=hermes," + InMemoryLdapServer.PEOPLE_DN, "hermes"));
+        ldapServer.add(user("cn=zoidberg," + InMemoryLdapServer.PEOPLE_DN, "zoidberg"));
+        underTest.configuration().setUserSearchFilter("(&(uid={0})(!(description=disabled)))");
+        underTest.configuration().setMirror(true);
+        underTest.configuration().setMirrorSyncInterval(200L);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.start();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().isLoaded());
+        int mirrored = underTest.mirror().size();
+
+        String zoidberg = "cn=zoidberg," + InMemoryLdapServer.PEOPLE_DN;
+        ldapServer.modify("dn: " + zoidberg, "changetype: modify", "add: description", "description: disabled");
+        ldapServer.modify("dn: cn=hermes," + InMemoryLdapServer.PEOPLE_DN, "changetype: modify", "replace: uid", "uid: conrad");
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().size() == mirrored - 1);
+        ldapServer.resetCounters();
+        assertThat(authenticate("conrad", "hermes")).isNotNull();
+        assertThat(ldapServer.searches()).isZero();
+        assertThat(authenticate("hermes", "hermes")).isNull();
+        assertThat(authenticate("zoidberg", "zoidberg")).isNull();
+    }
+
+    @Test
+    void should_not_resolve_username_of_several_users_from_mirror() throws Exception {
+        ldapServer.add(user("cn=kif," + InMemoryLdapServer.PEOPLE_DN, "kif"));
+        ldapServer.add(user("cn=kif kroker," + InMemoryLdapServer.PEOPLE_DN, "kif"));
+        underTest.configuration().setMirror(true);
+        underTest.configuration().setCacheMaxElements(0);
+        underTest.start();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.mirror().isLoaded());
+        ldapServer.resetCounters();
+
+        assertThat(authenticate("kif", "kif")).isNull();
+        // left to the user search, which rejects the ambiguous username
+        assertThat(ldapServer.searches()).isPositive();
+    }
+
+    @Test
+    void should_evict_cached_authentication_once_user_is_modified() throws Exception {
+        underTest.configuration().setCacheInvalidationInterval(200);
+        underTest.start();
+        underTest.warmUp().get(5, TimeUnit.SECONDS);
+        assertThat(authenticate("fry", "fry")).isNotNull();
+        assertThat(authenticate("leela", "leela")).isNotNull();
+        assertThat(underTest.getCachedAuthentication("fry", "fry")).isNotNull();
+
+        String fry = "uid=fry," + InMemoryLdapServer.PEOPLE_DN;
+        ldapServer.modify("dn: " + fry, "changetype: modify", "replace: userPassword", "userPassword: bender");
+        try {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getCachedAuthentication("fry", "fry") == null);
+
+            assertThat(underTest.metrics().invalidatedAuthentications()).isEqualTo(1);
+            assertThat(underTest.getCachedAuthentication("leela", "leela")).isNotNull();
+            // the old password is checked against the directory again
+            assertThat(authenticate("fry", "fry")).isNull();
+            assertThat(authenticate("fry", "bender")).isNotNull();
+        } finally {
+            ldapServer.modify("dn: " + fry, "changetype: modify", "replace: userPassword", "userPassword: fry");
+        }
+    }
+
+    @Test
+    void should_evict_cached_authentication_once_user_is_deleted() throws Exception {
+        ldapServer.addUser("scruffy");
+        underTest.configuration().setCacheInvalidationInterval(200);
+        underTest.start();
+        underTest.warmUp().get(5, TimeUnit.SECONDS);
+        assertThat(authenticate("scruffy", "scruffy")).isNotNull();
+        assertThat(authenticate("leela", "leela")).isNotNull();
+
+        ldapServer.delete("uid=scruffy," + InMemoryLdapServer.PEOPLE_DN);
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getCachedAuthentication("scruffy", "scruffy") == null);
+        assertThat(underTest.getCachedAuthentication("leela", "leela")).isNotNull();
+        assertThat(authenticate("scruffy", "scruffy")).isNull();
+    }
+
+    @Test
+    void should_fail_fast_while_circuit_is_open() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = underTest.configuration();
+        configuration.setResponseTimeout(100L);
+        configuration.setCircuitBreakerFailureRateThreshold(50);
+        configuration.setCircuitBreakerWindowSize(2);
+        configuration.setCircuitBreakerOpenDuration(60_000L);
+        underTest.start();
+        underTest.warmUp().get(5, TimeUnit.SECONDS);
+        ldapServer.withLatency(500, TimeUnit.MILLISECONDS);
+        try {
+            assertThat(authenticate("fry", "fry")).isNull();
+            assertThat(authenticate("leela", "leela")).isNull();
+            // rejected without waiting for the directory to time out
+            assertThat(authenticate("fry", "fry")).isNull();
+
+            assertThat(underTest.metrics().ldapAuthentications(LdapMetrics.OUTCOME_TIMEOUT)).isEqualTo(2);
+            assertThat(underTest.metrics().rejectedAuthentications(LdapMetrics.REJECTED_CIRCUIT_OPEN)).isEqualTo(1);
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void should_give_up_once_authentication_deadline_is_exceeded() throws Exception {
+        underTest.configuration().setAuthenticationTimeout(200L);
+        underTest.start();
+        underTest.warmUp().get(5, TimeUnit.SECONDS);
+        ldapServer.withLatency(1, TimeUnit.SECONDS);
+        ldapServer.resetCounters();
+        try {
+            long start = System.nanoTime();
+            assertThat(authenticate("fry", "fry")).isNull();
+
+            // the user search completes, the bind is not sent
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+            assertThat(ldapServer.binds()).isZero();
+            assertThat(underTest.metrics().ldapAuthentications(LdapMetrics.OUTCOME_TIMEOUT)).isEqualTo(1);
+        } finally {
+            ldapServer.withLatency(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String[] user(String dn, String uid) {
+        return new String[] {
+            "dn: " + dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: " + uid,
+            "cn: " + dn.substring(3, dn.indexOf(',')),
+            "sn: " + uid,
+            "userPassword: " + uid,
+        };
+    }
+
+    Authentication authenticate(String username, String password) throws Exception {
+        return authenticate(underTest, username, password);
+    }
+
+    static Authentication authenticate(LdapAuthenticationProviderResource resource, String username, String password)
+        throws Exception {
+        CompletableFuture<Authentication> authentication = new CompletableFuture<>();
+        resource.authenticate(username, password, authentication::complete);
+        return authentication.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import static io.gravitee.resource.authprovider.ldap.Helper.newLdapResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.el.spel.context.SecuredResolver;
+import io.gravitee.resource.authprovider.api.Authentication;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load and soak tests of the resource against an in-process directory, disabled by default.
+ * <p>
+ * Run the load test with <code>mvn test -Dtest=LdapAuthenticationProviderResourceLoadTest -Dldap.load=true</code> and the
+ * soak test with <code>-Dldap.soak=true</code>. The workload is tuned with system properties:
+ * <ul>
+ *     <li><code>ldap.load.threads</code>: concurrent clients, each waiting for its login before sending the next one (32)</li>
+ *     <li><code>ldap.load.duration</code>, <code>ldap.soak.duration</code>: ISO-8601 durations (PT30S, PT10M)</li>
+ *     <li><code>ldap.load.users</code>: users in the directory (1000)</li>
+ *     <li><code>ldap.load.zipf</code>: exponent of the Zipf distribution of logins over users, 0 being uniform (1.0)</li>
+ *     <li><code>ldap.load.badPasswordRatio</code>: ratio of logins sent with a wrong password (0.05)</li>
+ *     <li><code>ldap.load.latency</code>: milliseconds added by the directory to every search and bind (2)</li>
+ *     <li><code>ldap.load.errorRatio</code>: ratio of searches and binds failing during the soak test (0.01)</li>
+ *     <li><code>ldap.soak.dropInterval</code>: ISO-8601 interval at which connections are dropped during the soak test (PT30S)</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class LdapAuthenticationProviderResourceLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapAuthenticationProviderResourceLoadTest.class);
+
+    static final int THREADS = Integer.getInteger("ldap.load.threads", 32);
+    static final Duration LOAD_DURATION = Duration.parse(System.getProperty("ldap.load.duration", "PT30S"));
+    static final Duration SOAK_DURATION = Duration.parse(System.getProperty("ldap.soak.duration", "PT10M"));
+    static final Duration DROP_INTERVAL = Duration.parse(System.getProperty("ldap.soak.dropInterval", "PT30S"));
+    static final int USERS = Integer.getInteger("ldap.load.users", 1000);
+    static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("ldap.load.zipf", "1.0"));
+    static final double BAD_PASSWORD_RATIO = Double.parseDouble(System.getProperty("ldap.load.badPasswordRatio", "0.05"));
+    static final long LATENCY_MS = Long.getLong("ldap.load.latency", 2);
+    static final double ERROR_RATIO = Double.parseDouble(System.getProperty("ldap.load.errorRatio", "0.01"));
+
+    static TemplateEngine templateEngine;
+
+    static InMemoryLdapServer ldapServer;
+
+    private LdapAuthenticationProviderResource underTest;
+
+    @BeforeAll
+    static void init() throws Exception {
+        SecuredResolver.initialize(null);
+        templateEngine = TemplateEngine.templateEngine();
+        ldapServer = new InMemoryLdapServer().start().withLatency(LATENCY_MS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < USERS; i++) {
+            ldapServer.addUser("user" + i);
+        }
+    }
+
+    @AfterAll
+    static void shutdown() {
+        if (ldapServer != null) {
+            ldapServer.close();
+        }
+    }
+
+    @BeforeEach
+    void create() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = ldapServer.newConfiguration();
+        underTest = newLdapResource(configuration, templateEngine);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        underTest.stop();
+        ldapServer.withErrorRatio(0);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "ldap.load", matches = "true")
+    void should_sustain_load() throws Exception {
+        underTest.start();
+
+        LoadReport report = run(LOAD_DURATION, null);
+
+        LOGGER.info("Load test: {}", report);
+        assertThat(report.logins()).isPositive();
+        // without injected failures, every login gets the expected answer
+        assertThat(report.unexpected()).isZero();
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "ldap.soak", matches = "true")
+    void should_not_leak_threads_or_connections_during_soak() throws Exception {
+        int baselineThreads = Thread.activeCount();
+        underTest.start();
+        ldapServer.withErrorRatio(ERROR_RATIO);
+
+        LoadReport report = run(SOAK_DURATION, DROP_INTERVAL);
+        LOGGER.info("Soak test: {}", report);
+        ldapServer.withErrorRatio(0);
+
+        int maxConnections = Math.max(underTest.configuration().getMaxPoolSize(), underTest.configuration().getBindMaxPoolSize());
+        assertThat(workerThreads()).isLessThanOrEqualTo(maxConnections);
+        await()
+            .atMost(30, TimeUnit.SECONDS)
+            .untilAsserted(() ->
+                assertThat(underTest.metrics().pools().values())
+                    .allSatisfy(pool -> {
+                        assertThat(pool.active()).isZero();
+                        assertThat(pool.available()).isLessThanOrEqualTo(maxConnections);
+                    })
+            );
+        // logins still succeed once connections have been dropped
+        assertThat(authenticate("user0", "user0")).isNotNull();
+
+        underTest.stop();
+        await().atMost(30, TimeUnit.SECONDS).untilAsserted(() -> assertThat(workerThreads()).isZero());
+        await().atMost(30, TimeUnit.SECONDS).untilAsserted(() -> assertThat(Thread.activeCount()).isLessThanOrEqualTo(baselineThreads));
+    }
+
+    /**
+     * Sends logins from {@link #THREADS} clients during the given duration.
+     *
+     * @param dropInterval interval at which connections are dropped, or <code>null</code> to keep them
+     */
+    private LoadReport run(Duration duration, Duration dropInterval) throws Exception {
+        ZipfDistribution users = new ZipfDistribution(USERS, ZIPF_EXPONENT);
+        Timer latency = Timer
+            .builder("login")
+            .publishPercentiles(0.5, 0.99)
+            .distributionStatisticExpiry(duration.multipliedBy(2))
+            .distributionStatisticBufferLength(1)
+            .register(new SimpleMeterRegistry());
+        AtomicLong unexpected = new AtomicLong();
+        LdapMetrics metrics = underTest.metrics();
+        long cacheHits = metrics.cacheHits();
+        long cacheMisses = metrics.cacheMisses();
+        ldapServer.resetCounters();
+
+        ScheduledExecutorService dropper = Executors.newSingleThreadScheduledExecutor();
+        if (dropInterval != null) {
+            long dropMs = dropInterval.toMillis();
+            dropper.scheduleAtFixedRate(ldapServer::dropConnections, dropMs, dropMs, TimeUnit.MILLISECONDS);
+        }
+        ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(
+                    clients.submit(() -> {
+                        while (System.nanoTime() < deadline) {
+                            ThreadLocalRandom random = ThreadLocalRandom.current();
+                            String username = "user" + users.sample(random);
+                            boolean badPassword = random.nextDouble() < BAD_PASSWORD_RATIO;
+                            long loginStart = System.nanoTime();
+                            Authentication authentication = authenticate(username, badPassword ? "wrong" : username);
+                            latency.record(System.nanoTime() - loginStart, TimeUnit.NANOSECONDS);
+                            if ((authentication == null) != badPassword) {
+                                unexpected.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    })
+                );
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdownNow();
+            dropper.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        HistogramSnapshot snapshot = latency.takeSnapshot();
+        long logins = snapshot.count();
+        long hits = metrics.cacheHits() - cacheHits;
+        long lookups = hits + metrics.cacheMisses() - cacheMisses;
+        return new LoadReport(
+            logins,
+            unexpected.get(),
+            logins / seconds,
+            percentile(snapshot, 0.5),
+            percentile(snapshot, 0.99),
+            logins == 0 ? 0 : (double) (ldapServer.searches() + ldapServer.binds()) / logins,
+            lookups == 0 ? 0 : (double) hits / lookups
+        );
+    }
+
+    private Authentication authenticate(String username, String password) throws Exception {
+        CompletableFuture<Authentication> result = new CompletableFuture<>();
+        underTest.authenticate(username, password, result::complete);
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static double percentile(HistogramSnapshot snapshot, double percentile) {
+        return Arrays
+            .stream(snapshot.percentileValues())
+            .filter(value -> value.percentile() == percentile)
+            .mapToDouble(value -> value.value(TimeUnit.MILLISECONDS))
+            .findFirst()
+            .orElse(Double.NaN);
+    }
+
+    private static long workerThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("ldap-auth-")).count();
+    }
+
+    /**
+     * Picks user indexes following a Zipf distribution, so that a few users log in far more often than the others.
+     */
+    static class ZipfDistribution {
+
+        private final double[] cumulative;
+
+        ZipfDistribution(int size, double exponent) {
+            cumulative = new double[size];
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < size; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int sample(ThreadLocalRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * @param logins                 logins sent
+     * @param unexpected             logins whose result did not match the password sent
+     * @param throughput             logins per second
+     * @param p50                    median login latency, in milliseconds
+     * @param p99                    99th percentile of login latency, in milliseconds
+     * @param ldapOperationsPerLogin searches and binds received by the directory per login
+     * @param cacheHitRatio          ratio of logins answered from the cache
+     */
+    record LoadReport(
+        long logins,
+        long unexpected,
+        double throughput,
+        double p50,
+        double p99,
+        double ldapOperationsPerLogin,
+        double cacheHitRatio
+    ) {
+        @Override
+        public String toString() {
+            return String.format(
+                "logins=%d unexpected=%d throughput=%.1f/s p50=%.2fms p99=%.2fms ldapOperationsPerLogin=%.2f cacheHitRatio=%.3f",
+                logins,
+                unexpected,
+                throughput,
+                p50,
+                p99,
+                ldapOperationsPerLogin,
+                cacheHitRatio
+            );
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap;
+
+import static io.gravitee.resource.authprovider.ldap.Helper.newLdapResource;
+import static io.gravitee.resource.authprovider.ldap.LdapAuthenticationProviderResource.LDAP_URL_ATTRIBUTE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.el.spel.context.SecuredResolver;
+import io.gravitee.resource.authprovider.api.Authentication;
+import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
+import io.gravitee.resource.authprovider.ldap.configuration.LoadBalancingStrategy;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+
+/**
+ * Tests of the resource against two in-process directories holding the same users.
+ *
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class LdapAuthenticationProviderResourceRoutingTest {
+
+    static final int LOGINS = 20;
+
+    static TemplateEngine templateEngine;
+
+    private InMemoryLdapServer first;
+
+    private InMemoryLdapServer second;
+
+    private LdapAuthenticationProviderResource underTest;
+
+    @BeforeAll
+    static void init() {
+        SecuredResolver.initialize(null);
+        templateEngine = TemplateEngine.templateEngine();
+    }
+
+    @BeforeEach
+    void create() throws Exception {
+        first = new InMemoryLdapServer().start().addUser("fry");
+        second = new InMemoryLdapServer().start().addUser("fry");
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        if (underTest != null) {
+            underTest.stop();
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void should_spread_authentications_round_robin() throws Exception {
+        start(configuration(LoadBalancingStrategy.ROUND_ROBIN));
+
+        Set<Object> servedBy = new HashSet<>();
+        for (int i = 0; i < LOGINS; i++) {
+            servedBy.add(authenticate().getAttributes().get(LDAP_URL_ATTRIBUTE));
+        }
+
+        assertThat(userBinds(first)).isEqualTo(LOGINS / 2);
+        assertThat(userBinds(second)).isEqualTo(LOGINS / 2);
+        // the ldapURL attribute reports the server the user was bound on
+        assertThat(servedBy).containsExactlyInAnyOrder(first.url(), second.url());
+        assertThat(underTest.metrics().pools())
+            .containsOnlyKeys("search@0", "search@1", "bind@0", "bind@1");
+    }
+
+    @Test
+    void should_prefer_fastest_server() throws Exception {
+        second.withLatency(20, TimeUnit.MILLISECONDS);
+        start(configuration(LoadBalancingStrategy.LEAST_LATENCY));
+
+        for (int i = 0; i < LOGINS; i++) {
+            assertThat(authenticate()).isNotNull();
+        }
+
+        assertThat(userBinds(second)).isLessThan(userBinds(first));
+    }
+
+    @Test
+    void should_eject_unreachable_server() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = configuration(LoadBalancingStrategy.ROUND_ROBIN);
+        configuration.setServerEjectionThreshold(1);
+        configuration.setServerProbeInterval(1000);
+        // failures of the closed server must not be remembered as rejected credentials
+        configuration.setFailureCacheMaxElements(0);
+        start(configuration);
+
+        second.close();
+
+        // once probed, the closed server no longer gets any authentication
+        await()
+            .atMost(10, TimeUnit.SECONDS)
+            .untilAsserted(() -> {
+                for (int i = 0; i < 4; i++) {
+                    assertThat(authenticate()).isNotNull();
+                }
+            });
+        assertThat(authenticate().getAttributes()).containsEntry(LDAP_URL_ATTRIBUTE, first.url());
+    }
+
+    @Test
+    void should_bind_users_on_dedicated_servers() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = first.newConfiguration();
+        configuration.setBindContextSourceUrl(second.url());
+        configuration.setAttributes(List.of("uid", LDAP_URL_ATTRIBUTE));
+        configuration.setCacheMaxElements(0);
+        start(configuration);
+
+        assertThat(authenticate().getAttributes()).containsEntry(LDAP_URL_ATTRIBUTE, second.url());
+        assertThat(first.searches()).isPositive();
+        assertThat(userBinds(first)).isZero();
+        assertThat(userBinds(second)).isEqualTo(1);
+    }
+
+    @Test
+    void should_hedge_operations_of_slow_server() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = configuration(LoadBalancingStrategy.ROUND_ROBIN);
+        configuration.setHedgingPercentile(90);
+        configuration.setHedgingBudget(100);
+        configuration.setHedgingBinds(true);
+        start(configuration);
+        // learns the usual latencies
+        for (int i = 0; i < 2 * LOGINS; i++) {
+            assertThat(authenticate()).isNotNull();
+        }
+
+        second.withLatency(1, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            long start = System.nanoTime();
+            assertThat(authenticate().getAttributes()).containsEntry(LDAP_URL_ATTRIBUTE, first.url());
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+        }
+
+        assertThat(underTest.metrics().hedgedOperations(LdapMetrics.PHASE_DN_RESOLUTION)).isPositive();
+        assertThat(underTest.metrics().hedgedOperations(LdapMetrics.PHASE_BIND)).isPositive();
+    }
+
+    @Test
+    void should_not_hedge_binds_unless_enabled() throws Exception {
+        LdapAuthenticationProviderResourceConfiguration configuration = configuration(LoadBalancingStrategy.ROUND_ROBIN);
+        configuration.setHedgingPercentile(90);
+        configuration.setHedgingBudget(100);
+        start(configuration);
+        for (int i = 0; i < 2 * LOGINS; i++) {
+            assertThat(authenticate()).isNotNull();
+        }
+
+        second.withLatency(200, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 4; i++) {
+            assertThat(authenticate()).isNotNull();
+        }
+
+        assertThat(underTest.metrics().hedgedOperations(LdapMetrics.PHASE_DN_RESOLUTION)).isPositive();
+        assertThat(underTest.metrics().hedgedOperations(LdapMetrics.PHASE_BIND)).isZero();
+    }
+
+    private LdapAuthenticationProviderResourceConfiguration configuration(LoadBalancingStrategy strategy) {
+        LdapAuthenticationProviderResourceConfiguration configuration = first.newConfiguration();
+        configuration.setContextSourceUrl(first.url() + ", " + second.url());
+        configuration.setLoadBalancingStrategy(strategy);
+        configuration.setAttributes(List.of("uid", LDAP_URL_ATTRIBUTE));
+        configuration.setCacheMaxElements(0);
+        return configuration;
+    }
+
+    private void start(LdapAuthenticationProviderResourceConfiguration configuration) throws Exception {
+        underTest = newLdapResource(configuration, templateEngine);
+        underTest.start();
+        first.resetCounters();
+        second.resetCounters();
+    }
+
+    private Authentication authenticate() throws Exception {
+        CompletableFuture<Authentication> authentication = new CompletableFuture<>();
+        underTest.authenticate("fry", "fry", authentication::complete);
+        return authentication.get(5, TimeUnit.SECONDS);
+    }
+
+    private static long userBinds(InMemoryLdapServer server) {
+        return server.binds() - server.adminBinds();
+    }
+}
@@ -27,6 +27,7 @@ import io.gravitee.resource.authprovider.api.Authentication;
 import io.gravitee.resource.authprovider.ldap.configuration.LdapAuthenticationProviderResourceConfiguration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
@@ -77,11 +78,11 @@ class LdapAuthenticationProviderResourceTest {
     }
 
     @Test
-    void should_authenticate_user() {
+    void should_authenticate_user() throws Exception {
         assertThatCode(underTest::start).doesNotThrowAnyException();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
 
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=Hubert J. Farnsworth,ou=people,dc=planetexpress,dc=com");
@@ -91,12 +92,12 @@ class LdapAuthenticationProviderResourceTest {
     }
 
     @Test
-    void should_authenticate_user_no_cache() {
+    void should_authenticate_user_no_cache() throws Exception {
         underTest.configuration().setCacheMaxElements(0);
         assertThatCode(underTest::start).doesNotThrowAnyException();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=Hubert J. Farnsworth,ou=people,dc=planetexpress,dc=com");
 
@@ -104,13 +105,13 @@ class LdapAuthenticationProviderResourceTest {
     }
 
     @Test
-    void should_authenticate_user_and_retrieve_only_some_attributes() {
+    void should_authenticate_user_and_retrieve_only_some_attributes() throws Exception {
         underTest.configuration().setAttributes(List.of("mail", "displayName", "ou"));
 
         assertThatCode(underTest::start).doesNotThrowAnyException();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
 
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=Hubert J. Farnsworth,ou=people,dc=planetexpress,dc=com");
@@ -121,26 +122,26 @@ class LdapAuthenticationProviderResourceTest {
     }
 
     @Test
-    void should_authenticate_user_evicted() {
+    void should_authenticate_user_evicted() throws Exception {
         underTest.configuration().setCacheTimeToLive(500);
         underTest.configuration().setCacheChecksMs(250);
 
         assertThatCode(underTest::start).doesNotThrowAnyException();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
 
         await()
             .atMost(1, TimeUnit.SECONDS)
             .untilAsserted(() -> {
                 // it should no longer not be in the cache after 500ms, hence fail and thus return null
-                underTest.authenticate("professor", "foobar", authentication::set);
+                authentication.set(authenticate("professor", "foobar"));
                 assertThat(authentication.get()).isNull();
             });
     }
 
     @Test
-    void should_authenticate_user_despite_non_working_url() {
+    void should_authenticate_user_despite_non_working_url() throws Exception {
         String firstServer = "ldap://localhost:" + extraLdapServer.getMappedPort(LDAP_PORT);
         String secondServer = underTest.configuration().getContextSourceUrl();
         underTest
@@ -157,19 +158,19 @@ class LdapAuthenticationProviderResourceTest {
         assertThatCode(underTest::start).doesNotThrowAnyException();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=Hubert J. Farnsworth,ou=people,dc=planetexpress,dc=com");
         assertThat(authentication.get().getAttributes()).containsAllEntriesOf(Map.of(LDAP_URL_ATTRIBUTE, firstServer));
 
-        underTest.authenticate("fry", "fry", authentication::set);
+        authentication.set(authenticate("fry", "fry"));
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=Philip J. Fry,ou=people,dc=planetexpress,dc=com");
         assertThat(authentication.get().getAttributes()).containsAllEntriesOf(Map.of(LDAP_URL_ATTRIBUTE, firstServer));
 
         extraLdapServer.stop();
 
-        underTest.authenticate("zoidberg", "zoidberg", authentication::set);
+        authentication.set(authenticate("zoidberg", "zoidberg"));
         assertThat(authentication.get()).isNotNull();
         assertThat(authentication.get().getUsername()).isEqualTo("cn=John A. Zoidberg,ou=people,dc=planetexpress,dc=com");
         assertThat(authentication.get().getAttributes()).containsAllEntriesOf(Map.of(LDAP_URL_ATTRIBUTE, secondServer));
@@ -180,7 +181,7 @@ class LdapAuthenticationProviderResourceTest {
         underTest.start();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "ba bee doo sha bada", authentication::set);
+        authentication.set(authenticate("professor", "ba bee doo sha bada"));
         assertThat(authentication.get()).isNull();
     }
 
@@ -190,10 +191,16 @@ class LdapAuthenticationProviderResourceTest {
         underTest.start();
 
         AtomicReference<Authentication> authentication = new AtomicReference<>();
-        underTest.authenticate("professor", "professor", authentication::set);
+        authentication.set(authenticate("professor", "professor"));
         assertThat(authentication.get()).isNull();
     }
 
+    private Authentication authenticate(String username, String password) throws Exception {
+        CompletableFuture<Authentication> authentication = new CompletableFuture<>();
+        underTest.authenticate(username, password, authentication::complete);
+        return authentication.get(5, TimeUnit.SECONDS);
+    }
+
     @Nonnull
     private LdapAuthenticationProviderResourceConfiguration newConfiguration() {
         LdapAuthenticationProviderResourceConfiguration configuration = new LdapAuthenticationProviderResourceConfiguration();
@@ -17,6 +17,8 @@ package io.gravitee.resource.authprovider.ldap;
 
 import io.gravitee.el.TemplateEngine;
 import io.gravitee.gateway.reactive.api.context.DeploymentContext;
+import java.util.HashMap;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -28,9 +30,16 @@ public class TestDeploymentContext implements DeploymentContext {
 
     private final TemplateEngine templateEngine;
 
+    private final Map<Class<?>, Object> components = new HashMap<>();
+
+    public <T> TestDeploymentContext withComponent(Class<T> componentClass, T component) {
+        components.put(componentClass, component);
+        return this;
+    }
+
     @Override
     public <T> T getComponent(Class<T> componentClass) {
-        return null;
+        return componentClass.cast(components.get(componentClass));
     }
 
     @Override
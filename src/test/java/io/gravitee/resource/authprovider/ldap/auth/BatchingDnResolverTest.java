@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.auth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.resource.authprovider.ldap.InMemoryLdapServer;
+import io.gravitee.resource.authprovider.ldap.concurrent.Deadline;
+import io.gravitee.resource.authprovider.ldap.metrics.LdapMetrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.ldaptive.BindConnectionInitializer;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
+import org.ldaptive.auth.SearchDnResolver;
+import org.ldaptive.auth.User;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class BatchingDnResolverTest {
+
+    private InMemoryLdapServer ldapServer;
+
+    private ConnectionFactory factory;
+
+    private ExecutorService executor;
+
+    private ExecutorService logins;
+
+    private LdapMetrics metrics;
+
+    @BeforeEach
+    void start() throws Exception {
+        ldapServer = new InMemoryLdapServer().start().addUser("fry").addUser("leela");
+        factory =
+            new DefaultConnectionFactory(
+                ConnectionConfig
+                    .builder()
+                    .url(ldapServer.url())
+                    .connectionInitializers(
+                        BindConnectionInitializer
+                            .builder()
+                            .dn(InMemoryLdapServer.ADMIN_DN)
+                            .credential(InMemoryLdapServer.ADMIN_PASSWORD)
+                            .build()
+                    )
+                    .build()
+            );
+        executor = Executors.newCachedThreadPool();
+        logins = Executors.newFixedThreadPool(2);
+        metrics = new LdapMetrics(new SimpleMeterRegistry(), Tags.empty());
+    }
+
+    @AfterEach
+    void stop() {
+        logins.shutdownNow();
+        executor.shutdownNow();
+        factory.close();
+        ldapServer.close();
+    }
+
+    @Test
+    void should_search_batch_for_other_logins_once_one_gives_up() throws Exception {
+        BatchingDnResolver resolver = new BatchingDnResolver(
+            factory,
+            InMemoryLdapServer.PEOPLE_DN,
+            "uid={user}",
+            null,
+            2,
+            Duration.ofSeconds(1),
+            Duration.ofSeconds(5),
+            SearchDnResolver
+                .builder()
+                .factory(factory)
+                .dn(InMemoryLdapServer.PEOPLE_DN)
+                .filter("uid={user}")
+                .subtreeSearch(true)
+                .build(),
+            executor,
+            metrics
+        );
+        ldapServer.withLatency(300, TimeUnit.MILLISECONDS);
+
+        // whether it opened the batch or joined it, the login with little time left gives up on it
+        Future<String> late = logins.submit(() -> resolve(resolver, "fry", Duration.ofMillis(100)));
+        Future<String> leela = logins.submit(() -> resolve(resolver, "leela", null));
+
+        assertThatThrownBy(() -> late.get(5, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .cause()
+            .isInstanceOf(LdapException.class)
+            .satisfies(e -> assertThat(((LdapException) e).getResultCode()).isEqualTo(ResultCode.LDAP_TIMEOUT));
+        assertThat(leela.get(5, TimeUnit.SECONDS)).isEqualToIgnoringCase("uid=leela," + InMemoryLdapServer.PEOPLE_DN);
+        assertThat(metrics.dnBatches()).isEqualTo(1);
+        assertThat(metrics.dnBatchedLogins()).isEqualTo(2);
+    }
+
+    private static String resolve(BatchingDnResolver resolver, String username, Duration timeout) throws LdapException {
+        if (timeout != null) {
+            Deadline.start(System.nanoTime() + timeout.toNanos());
+        }
+        try {
+            return resolver.resolve(new User(username));
+        } finally {
+            Deadline.clear();
+        }
+    }
+}
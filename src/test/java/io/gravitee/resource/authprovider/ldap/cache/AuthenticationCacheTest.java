@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class AuthenticationCacheTest {
+
+    private final CredentialFingerprinter fingerprinter = new CredentialFingerprinter();
+
+    @Test
+    void should_return_cached_authentication() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1));
+        Authentication authentication = new Authentication("uid=fry");
+
+        cache.put(fingerprinter.fingerprint("fry", "fry"), authentication);
+
+        assertThat(cache.get(fingerprinter.fingerprint("fry", "fry"))).isSameAs(authentication);
+        assertThat(cache.get(fingerprinter.lookupKey("fry", "fry"))).isSameAs(authentication);
+        assertThat(cache.get(fingerprinter.fingerprint("fry", "wrong"))).isNull();
+    }
+
+    @Test
+    void should_keep_reused_lookup_key_apart_from_cached_key() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1));
+        Authentication authentication = new Authentication("uid=fry");
+
+        cache.put(fingerprinter.lookupKey("fry", "fry"), authentication);
+        fingerprinter.lookupKey("leela", "leela");
+
+        assertThat(cache.get(fingerprinter.fingerprint("fry", "fry"))).isSameAs(authentication);
+        assertThat(cache.get(fingerprinter.fingerprint("leela", "leela"))).isNull();
+    }
+
+    @Test
+    void should_expire_authentication() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMillis(200));
+        cache.put(fingerprinter.fingerprint("fry", "fry"), new Authentication("uid=fry"));
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> cache.get(fingerprinter.fingerprint("fry", "fry")) == null);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void should_bound_cache_size() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1));
+        for (int i = 0; i < 100; i++) {
+            cache.put(fingerprinter.fingerprint("user" + i, "user" + i), new Authentication("uid=user" + i));
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    void should_invalidate_all_authentications_of_a_user() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1));
+        cache.put(fingerprinter.fingerprint("fry", "fry"), new Authentication("uid=fry,ou=people"));
+        cache.put(fingerprinter.fingerprint("FRY", "fry"), new Authentication("uid=fry,ou=people"));
+        cache.put(fingerprinter.fingerprint("leela", "leela"), new Authentication("uid=leela,ou=people"));
+
+        assertThat(cache.invalidateDn("UID=fry,ou=people")).hasSize(2);
+
+        assertThat(cache.get(fingerprinter.fingerprint("fry", "fry"))).isNull();
+        assertThat(cache.get(fingerprinter.fingerprint("FRY", "fry"))).isNull();
+        assertThat(cache.get(fingerprinter.fingerprint("leela", "leela"))).isNotNull();
+        assertThat(cache.invalidateDn("uid=fry,ou=people")).isEmpty();
+    }
+
+    @Test
+    void should_serve_shorter_lived_entry_stale_for_the_stale_period_only() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1), Duration.ZERO, Duration.ofMillis(500));
+        cache.put(fingerprinter.fingerprint("fry", "fry"), new Authentication("uid=fry"), Duration.ofMillis(100));
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> cache.get(fingerprinter.fingerprint("fry", "fry")) == null);
+        assertThat(cache.getEntry(fingerprinter.fingerprint("fry", "fry"))).isNotNull();
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> cache.getEntry(fingerprinter.fingerprint("fry", "fry")) == null);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void should_not_cache_when_size_is_zero() {
+        AuthenticationCache cache = new AuthenticationCache(0, Duration.ofMinutes(1));
+        cache.put(fingerprinter.fingerprint("fry", "fry"), new Authentication("uid=fry"));
+
+        assertThat(cache.get(fingerprinter.fingerprint("fry", "fry"))).isNull();
+    }
+}
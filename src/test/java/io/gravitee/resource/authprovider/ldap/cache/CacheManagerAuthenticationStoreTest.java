@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class CacheManagerAuthenticationStoreTest {
+
+    @Test
+    void should_share_authentications_as_jdk_types_only() {
+        AuthenticationStore.StoredAuthentication authentication = new AuthenticationStore.StoredAuthentication(
+            "uid=fry,ou=people",
+            CompactAttributes.of(Map.of("mail", "fry@planetexpress.com", "groups", List.of("cn=crew"))),
+            42L
+        );
+
+        HashMap<String, Object> value = CacheManagerAuthenticationStore.toValue(authentication);
+
+        assertThat(value.values()).allMatch(element -> element.getClass().getName().startsWith("java."));
+        assertThat((Map<?, ?>) value.get("attributes")).allSatisfy((name, attribute) ->
+            assertThat(attribute.getClass().getName()).startsWith("java.")
+        );
+        assertThat(CacheManagerAuthenticationStore.fromValue(value)).isEqualTo(authentication);
+        assertThat(CacheManagerAuthenticationStore.fromValue(Map.of("username", 42))).isNull();
+    }
+}
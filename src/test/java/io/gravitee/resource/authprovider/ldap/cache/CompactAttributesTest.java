@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class CompactAttributesTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactAttributesTest.class);
+
+    private static final int USERS = 1000;
+
+    @Test
+    void should_expose_attributes_as_map() {
+        Map<String, String> attributes = userAttributes(1);
+
+        CompactAttributes compact = CompactAttributes.of(attributes);
+
+        assertThat(compact).isEqualTo(attributes).hasSameHashCodeAs(attributes);
+        assertThat(compact.get("mail")).isEqualTo("user1@planetexpress.com");
+        assertThat(compact.get("unknown")).isNull();
+        assertThat(compact.get(42)).isNull();
+        assertThat(compact.containsKey("ou")).isTrue();
+        assertThat(CompactAttributes.of(Map.of())).isEmpty();
+    }
+
+    @Test
+    void should_be_read_only() {
+        CompactAttributes compact = CompactAttributes.of(userAttributes(1));
+
+        assertThatThrownBy(() -> compact.put("mail", "fry@planetexpress.com")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> compact.remove("mail")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> compact.entrySet().iterator().next().setValue("fry"))
+            .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void should_share_names_and_values_across_users() {
+        CompactAttributes first = CompactAttributes.of(userAttributes(1));
+        CompactAttributes second = CompactAttributes.of(userAttributes(2));
+
+        assertThat(first.sharesNamesWith(second)).isTrue();
+        assertThat(first.get("ou")).isSameAs(second.get("ou"));
+        assertThat(first.get("memberOf")).isSameAs(second.get("memberOf"));
+    }
+
+    @Test
+    void should_not_intern_values_unique_to_each_user() {
+        for (int i = 0; i < CompactAttributes.SAMPLES; i++) {
+            CompactAttributes.of(userAttributes(USERS + i));
+        }
+
+        CompactAttributes first = CompactAttributes.of(userAttributes(1));
+        CompactAttributes second = CompactAttributes.of(userAttributes(1));
+
+        assertThat(first.get("mail")).isEqualTo(second.get("mail")).isNotSameAs(second.get("mail"));
+        assertThat(first.get("ou")).isSameAs(second.get("ou"));
+    }
+
+    @Test
+    void should_reduce_footprint_of_cached_users() {
+        long hashMapBytes = bytesPerUser(HashMap::new);
+        long compactBytes = bytesPerUser(CompactAttributes::of);
+
+        LOGGER.info("Cached user footprint: HashMap {} bytes, compact {} bytes", hashMapBytes, compactBytes);
+        assertThat(compactBytes).isLessThan(hashMapBytes / 2);
+    }
+
+    /**
+     * @return retained size of a cached authentication, attribute values being read from the directory for each user,
+     * entries added to the interners included
+     */
+    private static long bytesPerUser(Function<Map<String, String>, Map<String, ?>> storage) {
+        long interners = GraphLayout.parseInstance(CompactAttributes.interners()).totalSize();
+        List<Authentication> authentications = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            Authentication authentication = new Authentication("uid=user" + i + ",ou=people,dc=planetexpress,dc=com");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> attributes = (Map<String, Object>) storage.apply(userAttributes(i));
+            authentication.setAttributes(attributes);
+            authentications.add(authentication);
+        }
+        return (GraphLayout.parseInstance(authentications, CompactAttributes.interners()).totalSize() - interners) / USERS;
+    }
+
+    /**
+     * @return attributes of a user, each value being a distinct instance as when decoded from an LDAP response
+     */
+    private static Map<String, String> userAttributes(int user) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(copy("uid"), copy("user" + user));
+        attributes.put(copy("cn"), copy("user" + user));
+        attributes.put(copy("mail"), copy("user" + user + "@planetexpress.com"));
+        attributes.put(copy("displayName"), copy("User " + user));
+        attributes.put(copy("ou"), copy("Delivering Crew"));
+        attributes.put(copy("o"), copy("Planet Express"));
+        attributes.put(copy("l"), copy("New New York"));
+        attributes.put(copy("employeeType"), copy(user % 2 == 0 ? "Staff" : "Contractor"));
+        attributes.put(copy("memberOf"), copy("cn=ship_crew,ou=groups,dc=planetexpress,dc=com"));
+        attributes.put(copy("ldapURL"), copy("ldap://localhost:389"));
+        return attributes;
+    }
+
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.resource.authprovider.api.Authentication;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class CredentialFingerprinterTest {
+
+    private final CredentialFingerprinter fingerprinter = new CredentialFingerprinter();
+
+    @Test
+    void should_compute_hmac_sha256_of_length_prefixed_credentials() throws Exception {
+        byte[] secret = "GoodNewsEveryone".getBytes(StandardCharsets.UTF_8);
+        byte[] username = "frý".getBytes(StandardCharsets.UTF_8);
+        byte[] password = "p@ss🚀".getBytes(StandardCharsets.UTF_8);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        mac.update(ByteBuffer.allocate(4).putInt(username.length).array());
+        mac.update(username);
+        byte[] expected = mac.doFinal(password);
+
+        byte[] actual = new byte[Fingerprint.BYTES];
+        new CredentialFingerprinter(secret).fingerprint("frý", "p@ss🚀").writeTo(actual, 0);
+
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void should_tell_apart_credentials_sharing_their_concatenation() {
+        assertThat(fingerprinter.fingerprint("fry/", "fry")).isNotEqualTo(fingerprinter.fingerprint("fry", "/fry"));
+    }
+
+    @Test
+    void should_depend_on_secret() {
+        assertThat(new CredentialFingerprinter().fingerprint("fry", "fry")).isNotEqualTo(fingerprinter.fingerprint("fry", "fry"));
+    }
+
+    @Test
+    void should_round_trip_binary_form() {
+        Fingerprint fingerprint = fingerprinter.fingerprint("fry", "fry");
+        byte[] bytes = new byte[Fingerprint.BYTES];
+        fingerprint.writeTo(bytes, 0);
+
+        assertThat(Fingerprint.of(bytes, 0)).isEqualTo(fingerprint).hasSameHashCodeAs(fingerprint);
+    }
+
+    @Test
+    void should_reuse_lookup_key() {
+        Fingerprint fry = fingerprinter.lookupKey("fry", "fry");
+        Fingerprint kept = fry.immutable();
+
+        assertThat(fingerprinter.lookupKey("leela", "leela")).isSameAs(fry);
+        assertThat(kept).isNotSameAs(fry).isEqualTo(fingerprinter.fingerprint("fry", "fry"));
+        assertThat(kept.immutable()).isSameAs(kept);
+    }
+
+    @Test
+    void should_not_allocate_on_cache_hit() {
+        AuthenticationCache cache = new AuthenticationCache(10, Duration.ofMinutes(1));
+        cache.put(fingerprinter.fingerprint("fry", "fry"), new Authentication("uid=fry"));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int iterations = 100_000;
+
+        // warm up thread buffers and cache maintenance
+        for (int i = 0; i < iterations; i++) {
+            cache.getEntry(fingerprinter.lookupKey("fry", "fry"));
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            cache.getEntry(fingerprinter.lookupKey("fry", "fry"));
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // the measure itself allocates a little, far less than a single byte per lookup
+        assertThat(allocated).isLessThan(iterations);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class FailureThrottleTest {
+
+    @Test
+    void should_throttle_user_once_threshold_is_reached() {
+        FailureThrottle throttle = new FailureThrottle(3, Duration.ofMinutes(1), Duration.ofMinutes(5));
+
+        throttle.failure("fry");
+        throttle.failure("Fry");
+        assertThat(throttle.isThrottled("fry")).isFalse();
+
+        throttle.failure("fry");
+        assertThat(throttle.isThrottled("FRY")).isTrue();
+        assertThat(throttle.isThrottled("leela")).isFalse();
+    }
+
+    @Test
+    void should_release_user_after_backoff() {
+        FailureThrottle throttle = new FailureThrottle(1, Duration.ofMillis(200), Duration.ofMinutes(1));
+
+        throttle.failure("fry");
+        assertThat(throttle.isThrottled("fry")).isTrue();
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> !throttle.isThrottled("fry"));
+    }
+
+    @Test
+    void should_throttle_user_for_initial_backoff_above_max_backoff() {
+        FailureThrottle throttle = new FailureThrottle(1, Duration.ofMinutes(1), Duration.ZERO);
+
+        throttle.failure("fry");
+
+        assertThat(throttle.isThrottled("fry")).isTrue();
+    }
+
+    @Test
+    void should_reset_failures_on_success() {
+        FailureThrottle throttle = new FailureThrottle(1, Duration.ofMinutes(1), Duration.ofMinutes(5));
+
+        throttle.failure("fry");
+        throttle.success("fry");
+
+        assertThat(throttle.isThrottled("fry")).isFalse();
+    }
+
+    @Test
+    void should_not_throttle_when_disabled() {
+        FailureThrottle throttle = new FailureThrottle(0, Duration.ofMinutes(1), Duration.ofMinutes(5));
+
+        throttle.failure("fry");
+
+        assertThat(throttle.isThrottled("fry")).isFalse();
+    }
+}
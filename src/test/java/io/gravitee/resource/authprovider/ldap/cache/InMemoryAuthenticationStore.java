@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local stand-in for a distributed {@link AuthenticationStore}, shared by the resources of a test as it would be by
+ * gateway nodes.
+ *
+ * @author GraviteeSource Team
+ */
+public class InMemoryAuthenticationStore implements AuthenticationStore {
+
+    private final Map<Fingerprint, StoredAuthentication> authentications = new ConcurrentHashMap<>();
+
+    @Override
+    public StoredAuthentication get(Fingerprint key) {
+        StoredAuthentication authentication = authentications.get(key);
+        return authentication == null || authentication.remainingMillis() <= 0 ? null : authentication;
+    }
+
+    @Override
+    public void put(Fingerprint key, StoredAuthentication authentication) {
+        authentications.put(key.immutable(), authentication);
+    }
+
+    @Override
+    public void invalidate(Fingerprint key) {
+        authentications.remove(key);
+    }
+
+    public int size() {
+        return authentications.size();
+    }
+}
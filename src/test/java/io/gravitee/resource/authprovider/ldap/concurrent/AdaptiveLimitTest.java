@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class AdaptiveLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<Integer> changes = new ArrayList<>();
+
+    @Test
+    void should_start_at_and_never_exceed_maximum() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 10, changes::add);
+
+        sample(limit, FAST, false, 100);
+
+        assertThat(limit.limit()).isEqualTo(10);
+        assertThat(changes).isEmpty();
+    }
+
+    @Test
+    void should_decrease_when_latency_exceeds_baseline() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 10, changes::add);
+        sample(limit, FAST, false, 10);
+
+        limit.sample(SLOW, false);
+
+        assertThat(limit.limit()).isEqualTo(9);
+        assertThat(changes).containsExactly(9);
+    }
+
+    @Test
+    void should_decrease_when_calls_are_dropped() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 10, changes::add);
+        sample(limit, FAST, false, 10);
+
+        // fast, but failed
+        limit.sample(FAST, true);
+
+        assertThat(limit.limit()).isEqualTo(9);
+    }
+
+    @Test
+    void should_never_go_below_minimum() {
+        AdaptiveLimit limit = new AdaptiveLimit(3, 10, changes::add);
+
+        sample(limit, FAST, true, 100);
+
+        assertThat(limit.limit()).isEqualTo(3);
+        assertThat(changes).last().isEqualTo(3);
+        assertThat(changes).allMatch(value -> value >= 3);
+    }
+
+    @Test
+    void should_increase_by_about_one_per_limit_calls() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 10, changes::add);
+        sample(limit, FAST, false, 10);
+        limit.sample(SLOW, false);
+        assertThat(limit.limit()).isEqualTo(9);
+
+        sample(limit, FAST, false, 8);
+        assertThat(limit.limit()).isEqualTo(9);
+
+        sample(limit, FAST, false, 2);
+        assertThat(limit.limit()).isEqualTo(10);
+    }
+
+    @Test
+    void should_clamp_minimum_to_maximum() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 5, changes::add);
+
+        sample(limit, FAST, true, 10);
+
+        assertThat(limit.limit()).isEqualTo(5);
+    }
+
+    private static void sample(AdaptiveLimit limit, long latencyNanos, boolean dropped, int times) {
+        for (int i = 0; i < times; i++) {
+            limit.sample(latencyNanos, dropped);
+        }
+    }
+}
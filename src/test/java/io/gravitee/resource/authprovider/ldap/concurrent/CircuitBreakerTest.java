@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.resource.authprovider.ldap.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class CircuitBreakerTest {
+
+    @Test
+    void should_open_once_failure_rate_is_reached() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 4, Duration.ofMinutes(1), 1);
+
+        record(breaker, false, true, false);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        record(breaker, true);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void should_forget_failures_leaving_the_window() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 4, Duration.ofMinutes(1), 1);
+
+        record(breaker, true, false, false, false, false, false, true);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void should_close_once_probes_succeed() {
+        CircuitBreaker breaker = new CircuitBreaker(100, 2, Duration.ofMillis(100), 2);
+        record(breaker, true, true);
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> !breaker.isOpen());
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // probes are in flight, further calls wait for their outcome
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.record(false);
+        breaker.record(false);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void should_open_again_when_a_probe_fails() {
+        CircuitBreaker breaker = new CircuitBreaker(100, 2, Duration.ofMillis(100), 2);
+        record(breaker, true, true);
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> !breaker.isOpen());
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.record(true);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void should_never_open_when_disabled() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 2, Duration.ofMinutes(1), 1);
+
+        record(breaker, true, true, true);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    private static void record(CircuitBreaker breaker, boolean... failures) {
+        for (boolean failure : failures) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.record(failure);
+        }
+    }
+}
@@ -78,6 +78,7 @@ class LdapAuthenticationProviderResourceConfigurationTest {
         assertThat(configuration.getResponseTimeout()).isEqualTo(5000L);
         assertThat(configuration.getMinPoolSize()).isEqualTo(5);
         assertThat(configuration.getMaxPoolSize()).isEqualTo(15);
+        assertThat(configuration.getBindMinPoolSize()).isZero();
     }
 
     @Test